@@ -0,0 +1,171 @@
+package jp.naist.se.codehash.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+
+import jp.naist.se.codehash.FileType;
+import jp.naist.se.codehash.TokenSequence;
+
+/**
+ * A set of source files of a single language used as benchmark input.
+ * Files are either generated from the bundled warm-up sample of the language
+ * or loaded from a directory.
+ */
+public class Corpus {
+
+	/**
+	 * The median size of generated files in bytes.
+	 * Sizes are drawn from a log-normal distribution, which approximates the size distribution of source files in software projects.
+	 */
+	public static final int MEDIAN_FILE_SIZE = 6 * 1024;
+
+	/**
+	 * The standard deviation of the logarithm of generated file sizes.
+	 */
+	public static final double FILE_SIZE_SIGMA = 1.0;
+
+	/**
+	 * The maximum size of generated files in bytes.
+	 */
+	public static final int MAX_FILE_SIZE = 256 * 1024;
+
+	private FileType type;
+	private ArrayList<byte[]> contents;
+	private TokenSequence[] tokens;
+
+	private Corpus(FileType type) {
+		this.type = type;
+		this.contents = new ArrayList<>();
+	}
+
+	/**
+	 * Create a corpus from benchmark parameters.
+	 * @param language is a FileType name.
+	 * @param fileCount is the number of files.
+	 * @param dir is a directory to load files from.  Files are generated if it is empty.
+	 */
+	public static Corpus create(String language, int fileCount, String dir) throws IOException {
+		FileType type = FileType.valueOf(language);
+		if (dir.isEmpty()) {
+			return generate(type, fileCount, 0);
+		} else {
+			return load(type, new File(dir), fileCount);
+		}
+	}
+
+	/**
+	 * Generate files by concatenating copies of the bundled sample file.
+	 * Each copy renames "Sample" in the text, so that the copies in a file are not identical.
+	 * Copies are not truncated in order to keep the content lexically valid.
+	 * @param type specifies a language.
+	 * @param fileCount is the number of files.
+	 * @param seed initializes a random number generator for file sizes.
+	 * @return the generated corpus.
+	 */
+	public static Corpus generate(FileType type, int fileCount, long seed) throws IOException {
+		String sample = readSample(type);
+		Random random = new Random(seed);
+		Corpus corpus = new Corpus(type);
+		for (int i=0; i<fileCount; i++) {
+			long size = Math.round(MEDIAN_FILE_SIZE * Math.exp(FILE_SIZE_SIGMA * random.nextGaussian()));
+			size = Math.min(size, MAX_FILE_SIZE);
+			StringBuilder builder = new StringBuilder((int)size + sample.length());
+			int copy = 0;
+			do {
+				builder.append(sample.replace("Sample", "Sample" + i + "x" + copy));
+				copy++;
+			} while (builder.length() < size);
+			corpus.add(builder.toString().getBytes(StandardCharsets.UTF_8));
+		}
+		return corpus;
+	}
+
+	/**
+	 * Load files of a language in a directory and its subdirectories.
+	 * @param type specifies a language.
+	 * @param dir is the directory.
+	 * @param fileCount is the maximum number of files to be loaded.
+	 * @return the loaded corpus.
+	 */
+	public static Corpus load(FileType type, File dir, int fileCount) throws IOException {
+		ArrayList<File> files = new ArrayList<>();
+		collect(type, dir, files);
+		files.sort(null);
+		Corpus corpus = new Corpus(type);
+		for (int i=0; i<files.size() && i<fileCount; i++) {
+			corpus.add(Files.readAllBytes(files.get(i).toPath()));
+		}
+		if (corpus.size() == 0) {
+			throw new IOException("No " + type.name() + " files found in " + dir.getAbsolutePath());
+		}
+		return corpus;
+	}
+
+	private static void collect(FileType type, File f, ArrayList<File> files) {
+		if (f.isDirectory()) {
+			File[] children = f.listFiles();
+			if (children != null) {
+				for (File c: children) {
+					collect(type, c, files);
+				}
+			}
+		} else if (f.isFile() && FileType.getFileTypeFromName(f.getName()) == type) {
+			files.add(f);
+		}
+	}
+
+	private static String readSample(FileType type) throws IOException {
+		try (InputStream sample = FileType.class.getResourceAsStream("warmup/" + type.name().toLowerCase() + ".txt")) {
+			if (sample == null) {
+				throw new IOException("No sample file for " + type.name());
+			}
+			ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			byte[] b = new byte[4096];
+			int n;
+			while ((n = sample.read(b)) > 0) {
+				buf.write(b, 0, n);
+			}
+			return new String(buf.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private void add(byte[] content) {
+		contents.add(content);
+	}
+
+	public FileType getType() {
+		return type;
+	}
+
+	/**
+	 * @return the number of files.
+	 */
+	public int size() {
+		return contents.size();
+	}
+
+	public byte[] getContent(int index) {
+		return contents.get(index);
+	}
+
+	/**
+	 * @return tokens of a file.  All files are tokenized at the first call,
+	 * so that hash benchmarks can exclude tokenization from the measurement.
+	 */
+	public TokenSequence getTokens(int index) {
+		if (tokens == null) {
+			tokens = new TokenSequence[contents.size()];
+			for (int i=0; i<tokens.length; i++) {
+				tokens[i] = new TokenSequence(FileType.createReader(type, contents.get(i)));
+			}
+		}
+		return tokens[index];
+	}
+
+}
@@ -0,0 +1,113 @@
+package jp.naist.se.codehash.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import jp.naist.se.codehash.CodeHashTokenReader;
+import jp.naist.se.codehash.GitCodeHash;
+import jp.naist.se.codehash.MurmurMinHash;
+import jp.naist.se.codehash.NgramMultiset;
+import jp.naist.se.codehash.NgramReader;
+import jp.naist.se.codehash.OnePermutationMinHash;
+import jp.naist.se.codehash.TokenReader;
+import jp.naist.se.codehash.sha1.SHA1MinHash;
+import jp.naist.se.codehash.sha1.SHA1MinHashMSR2017;
+
+/**
+ * Measure the throughput of N-gram collection and hash computation.
+ * Files are tokenized in advance, so that the measurement excludes lexers.
+ * An invocation processes a file with the parameters used by GitCodeHash; files in a corpus are processed in turn.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashBenchmark {
+
+	@Param({"JAVA"})
+	public String language;
+
+	@Param({"200"})
+	public int fileCount;
+
+	/**
+	 * A directory including source files.  Files are generated if empty.
+	 */
+	@Param({""})
+	public String dir;
+
+	private Corpus corpus;
+	private int index;
+
+	@Setup
+	public void setup() throws IOException {
+		corpus = Corpus.create(language, fileCount, dir);
+		corpus.getTokens(0);
+	}
+
+	/**
+	 * Move to the next file.
+	 * @return a reader for the tokens of the file.
+	 */
+	private TokenReader nextReader(Throughput throughput) {
+		TokenReader r = corpus.getTokens(index).getReader();
+		throughput.add(corpus.getContent(index));
+		index = (index + 1) % corpus.size();
+		return r;
+	}
+
+	@Benchmark
+	public void ngramMultiset(Throughput throughput, Blackhole bh) {
+		bh.consume(new NgramMultiset(new NgramReader(GitCodeHash.BBITMINHASH_NGRAM_SIZE, nextReader(throughput))));
+	}
+
+	@Benchmark
+	public void murmurMinHash(Throughput throughput, Blackhole bh) {
+		MurmurMinHash h = new MurmurMinHash(GitCodeHash.BBITMINHASH_BITCOUNT, GitCodeHash.BBITMINHASH_NGRAM_SIZE, nextReader(throughput));
+		bh.consume(h.getHash());
+	}
+
+	@Benchmark
+	public void sha1MinHash(Throughput throughput, Blackhole bh) {
+		SHA1MinHash h = new SHA1MinHash(GitCodeHash.BBITMINHASH_BITCOUNT, GitCodeHash.BBITMINHASH_NGRAM_SIZE, nextReader(throughput));
+		bh.consume(h.getHash());
+	}
+
+	@Benchmark
+	public void sha1MinHashMSR2017(Throughput throughput, Blackhole bh) {
+		SHA1MinHashMSR2017 h = new SHA1MinHashMSR2017(GitCodeHash.BBITMINHASH_BITCOUNT, GitCodeHash.BBITMINHASH_NGRAM_SIZE, nextReader(throughput));
+		bh.consume(h.getHash());
+	}
+
+	@Benchmark
+	public void onePermutationMinHash(Throughput throughput, Blackhole bh) {
+		OnePermutationMinHash h = new OnePermutationMinHash(GitCodeHash.BBITMINHASH_BITCOUNT, GitCodeHash.BBITMINHASH_NGRAM_SIZE, nextReader(throughput));
+		bh.consume(h.getHash());
+	}
+
+	@Benchmark
+	public void codeHash(Throughput throughput, Blackhole bh) {
+		int size = corpus.getContent(index).length;
+		CodeHashTokenReader r = new CodeHashTokenReader(nextReader(throughput), size);
+		while (r.next()) {
+			r.getNormalizedText();
+		}
+		bh.consume(r.getHash());
+	}
+
+}
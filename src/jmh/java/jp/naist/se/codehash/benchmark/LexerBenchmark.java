@@ -0,0 +1,97 @@
+package jp.naist.se.codehash.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import jp.naist.se.codehash.FileType;
+import jp.naist.se.codehash.TokenReader;
+
+/**
+ * A main class to measure tokenization time of the first files in a JVM.
+ * It tokenizes the specified files in order and reports the time for each batch of files.
+ * Run it with and without "-warmup:LANG" in separate JVMs to compare the time to reach a steady state.
+ * Unlike the JMH benchmarks, it measures a cold JVM.
+ */
+public class LexerBenchmark {
+
+	/**
+	 * An option to tokenize bundled sample files before the measurement, e.g. "-warmup:JAVA".
+	 */
+	public static final String ARG_WARMUP = "-warmup:";
+
+	/**
+	 * An option to specify the number of files in a batch, e.g. "-batch:100".
+	 */
+	public static final String ARG_BATCH = "-batch:";
+
+	public static void main(String[] args) throws IOException {
+		String warmUpTypes = null;
+		int batchSize = 100;
+		ArrayList<File> files = new ArrayList<>();
+		for (String arg: args) {
+			if (arg.startsWith(ARG_WARMUP)) {
+				warmUpTypes = arg.substring(ARG_WARMUP.length());
+			} else if (arg.startsWith(ARG_BATCH)) {
+				try {
+					batchSize = Math.max(1, Integer.parseInt(arg.substring(ARG_BATCH.length())));
+				} catch (NumberFormatException e) {
+					System.err.println("Invalid number: " + arg);
+					return;
+				}
+			} else {
+				collect(new File(arg), files);
+			}
+		}
+
+		// Load contents in advance to exclude I/O from the measurement
+		ArrayList<FileType> types = new ArrayList<>();
+		ArrayList<byte[]> contents = new ArrayList<>();
+		for (File f: files) {
+			FileType t = FileType.getFileTypeFromName(f.getName());
+			if (FileType.isSupported(t)) {
+				types.add(t);
+				contents.add(Files.readAllBytes(f.toPath()));
+			}
+		}
+
+		long start = System.nanoTime();
+		if (warmUpTypes != null && !FileType.warmUp(warmUpTypes)) {
+			System.err.println("Unsupported language: " + warmUpTypes);
+			return;
+		}
+		long warmUpTime = System.nanoTime() - start;
+		System.out.println("Batch\tFiles\tTokens\tMillis\tTokensPerMillis");
+		System.out.println("warmup\t0\t0\t" + warmUpTime / 1000000 + "\t0");
+
+		for (int batch=0; batch * batchSize < contents.size(); batch++) {
+			long batchStart = System.nanoTime();
+			long tokens = 0;
+			int end = Math.min((batch + 1) * batchSize, contents.size());
+			for (int i=batch * batchSize; i<end; i++) {
+				TokenReader r = FileType.createReader(types.get(i), contents.get(i));
+				while (r.next()) {
+					r.getNormalizedText();
+				}
+				tokens += r.getTokenCount();
+			}
+			long millis = (System.nanoTime() - batchStart) / 1000000;
+			System.out.println(batch + "\t" + (end - batch * batchSize) + "\t" + tokens + "\t" + millis + "\t" + (millis > 0 ? tokens / millis : tokens));
+		}
+		System.out.println("total\t" + contents.size() + "\t-\t" + (System.nanoTime() - start) / 1000000 + "\t-");
+	}
+
+	private static void collect(File f, ArrayList<File> files) {
+		if (f.isDirectory()) {
+			File[] children = f.listFiles();
+			if (children != null) {
+				for (File c: children) {
+					collect(c, files);
+				}
+			}
+		} else if (f.isFile()) {
+			files.add(f);
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package jp.naist.se.codehash.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jp.naist.se.codehash.CodeHashTokenReader;
+import jp.naist.se.codehash.GitCodeHash;
+import jp.naist.se.codehash.HashStringUtil;
+import jp.naist.se.codehash.MurmurMinHash;
+import jp.naist.se.codehash.comparison.MinHashEntry;
+
+/**
+ * Measure MinHashEntry.estimateSimilarity for all pairs of files in a corpus.
+ * The score is the number of corpus scans per second;
+ * multiply it by n(n-1)/2 for the number of comparisons per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SimilarityBenchmark {
+
+	@Param({"JAVA"})
+	public String language;
+
+	@Param({"200"})
+	public int fileCount;
+
+	/**
+	 * A directory including source files.  Files are generated if empty.
+	 */
+	@Param({""})
+	public String dir;
+
+	private MinHashEntry[] entries;
+
+	@Setup
+	public void setup() throws IOException {
+		Corpus corpus = Corpus.create(language, fileCount, dir);
+		entries = new MinHashEntry[corpus.size()];
+		for (int i=0; i<entries.length; i++) {
+			CodeHashTokenReader r = new CodeHashTokenReader(corpus.getTokens(i).getReader(), corpus.getContent(i).length);
+			MurmurMinHash h = new MurmurMinHash(GitCodeHash.BBITMINHASH_BITCOUNT, GitCodeHash.BBITMINHASH_NGRAM_SIZE, r);
+			entries[i] = new MinHashEntry(Integer.toString(i), null, language, HashStringUtil.bytesToHex(r.getHash()), h.getHash(), h.getNormalizedHash(), corpus.getContent(i).length, r.getTokenCount(), h.getNgramCount());
+		}
+	}
+
+	@Benchmark
+	public double estimateSimilarity() {
+		double sum = 0;
+		for (int i=0; i<entries.length; i++) {
+			for (int j=i+1; j<entries.length; j++) {
+				sum += entries[i].estimateSimilarity(entries[j]);
+			}
+		}
+		return sum;
+	}
+
+}
@@ -0,0 +1,34 @@
+package jp.naist.se.codehash.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counters reported by JMH as rates in addition to the benchmark score,
+ * i.e. files/s and MB/s of source files processed by a benchmark.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Throughput {
+
+	public long files;
+	public double megabytes;
+
+	@Setup(Level.Iteration)
+	public void reset() {
+		files = 0;
+		megabytes = 0;
+	}
+
+	/**
+	 * Record a processed file.
+	 */
+	public void add(byte[] content) {
+		files++;
+		megabytes += content.length / 1000000.0;
+	}
+
+}
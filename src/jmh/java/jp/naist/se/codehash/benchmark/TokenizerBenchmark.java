@@ -0,0 +1,65 @@
+package jp.naist.se.codehash.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jp.naist.se.codehash.FileType;
+import jp.naist.se.codehash.TokenReader;
+
+/**
+ * Measure the throughput of ANTLR lexers (AntlrTokenReader) for each language.
+ * An invocation tokenizes a file; files in a corpus are processed in turn.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenizerBenchmark {
+
+	@Param({"JAVA", "CPP", "ECMASCRIPT", "PYTHON", "PHP", "CSHARP"})
+	public String language;
+
+	@Param({"200"})
+	public int fileCount;
+
+	/**
+	 * A directory including source files.  Files are generated if empty.
+	 */
+	@Param({""})
+	public String dir;
+
+	private Corpus corpus;
+	private int index;
+
+	@Setup
+	public void setup() throws IOException {
+		corpus = Corpus.create(language, fileCount, dir);
+	}
+
+	@Benchmark
+	public int tokenize(Throughput throughput) {
+		byte[] content = corpus.getContent(index);
+		index = (index + 1) % corpus.size();
+		TokenReader r = FileType.createReader(corpus.getType(), content);
+		while (r.next()) {
+			r.getNormalizedText();
+		}
+		throughput.add(content);
+		return r.getTokenCount();
+	}
+
+}
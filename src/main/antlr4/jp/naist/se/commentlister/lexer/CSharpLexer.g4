@@ -14,6 +14,17 @@ channels { COMMENTS_CHANNEL, DIRECTIVE }
 private Stack<Boolean> interpolatedVerbatiums = new Stack<Boolean>();
 private Stack<Integer> curlyLevels = new Stack<Integer>();
 private boolean verbatium;
+
+// Clear the state so that the lexer can be reused for another input.
+@Override
+public void reset()
+{
+    super.reset();
+    interpolatedStringLevel = 0;
+    interpolatedVerbatiums.clear();
+    curlyLevels.clear();
+    verbatium = false;
+}
 }
 
 BYTE_ORDER_MARK: '\u00EF\u00BB\u00BF';
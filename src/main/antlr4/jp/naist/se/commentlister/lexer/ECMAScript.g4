@@ -105,6 +105,13 @@ grammar ECMAScript;
     // The most recently produced token.
     private Token lastToken = null;
 
+    // Clear the state so that the lexer can be reused for another input.
+    @Override
+    public void reset() {
+        super.reset();
+        this.lastToken = null;
+    }
+
     /**
      * Returns {@code true} iff the lexer operates in strict mode.
      *
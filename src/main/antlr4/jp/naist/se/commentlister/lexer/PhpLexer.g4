@@ -36,6 +36,20 @@ String _htmlNameText;
 boolean _phpScript;
 boolean _insideString;
 
+// Clear the state so that the lexer can be reused for another input.
+@Override
+public void reset()
+{
+    super.reset();
+    _scriptTag = false;
+    _styleTag = false;
+    _heredocIdentifier = null;
+    _prevTokenType = 0;
+    _htmlNameText = null;
+    _phpScript = false;
+    _insideString = false;
+}
+
 @Override
 public Token nextToken()
 {
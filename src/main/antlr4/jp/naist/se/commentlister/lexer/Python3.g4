@@ -44,6 +44,16 @@ tokens { INDENT, DEDENT }
   private int opened = 0;
   // The most recently produced token.
   private Token lastToken = null;
+
+  // Clear the state so that the lexer can be reused for another input.
+  @Override
+  public void reset() {
+    super.reset();
+    tokens.clear();
+    indents.clear();
+    opened = 0;
+    lastToken = null;
+  }
   @Override
   public void emit(Token t) {
     super.setToken(t);
@@ -14,6 +14,11 @@ public class AntlrTokenReader implements TokenReader {
 	
 	private int tokenCount;
 	
+	/**
+	 * If non-null, the lexer is returned to FileType for reuse when the reader reached EOF.
+	 */
+	private FileType pooledType;
+	
 	public AntlrTokenReader(Lexer lexer, Filter filter, Normalizer normalizer) {
 		this.lexer = lexer;
 		this.filter = filter;
@@ -21,14 +26,30 @@ public class AntlrTokenReader implements TokenReader {
 		this.tokenCount = 0;
 	}
 	
+	/**
+	 * Create a reader using a lexer provided by FileType.
+	 * @param pooledType specifies a language of the lexer.  
+	 */
+	AntlrTokenReader(Lexer lexer, Filter filter, Normalizer normalizer, FileType pooledType) {
+		this(lexer, filter, normalizer);
+		this.pooledType = pooledType;
+	}
+	
 	@Override
 	public boolean next() {
+		if (lexer == null) return false;
 		current = lexer.nextToken();
 		while (!filter.accept(current) && current.getType() != Lexer.EOF) {
 			current = lexer.nextToken();
 		}
 		boolean hasToken = current.getType() != Lexer.EOF;
-		if (hasToken) tokenCount++;
+		if (hasToken) {
+			tokenCount++;
+		} else if (pooledType != null) {
+			// The lexer is no longer used by this reader
+			FileType.releaseLexer(pooledType, lexer);
+			lexer = null;
+		}
 		return hasToken;
 	}
 	
@@ -1,8 +1,5 @@
 package jp.naist.se.codehash;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-
 /**
  * A hash computation that ignores comments and white space in the content
  */
@@ -13,24 +10,14 @@ public class CodeHash {
 	/**
 	 * Compute a file hash ignoring comments and white space
 	 * @param tokenReader is to read only tokens 
-	 * @param size specifies a buffer size to read tokens 
+	 * @param size specifies the file size.  It is no longer used since tokens are hashed incrementally. 
 	 */
 	public CodeHash(TokenReader tokenReader, long size) {
-		try {
-			MessageDigest digest = MessageDigest.getInstance("SHA-1");
-			StringBuilder builder = new StringBuilder((int)size);
-			while (tokenReader.next()) {
-				String token = tokenReader.getText();
-				// PHPLexer may return null
-				if (token != null) { 
-					builder.append(token);
-					builder.append('\0');
-				}
-			}
-			codehash = digest.digest(builder.toString().getBytes());
-		} catch (NoSuchAlgorithmException e) {
-			throw new RuntimeException("Failed to compute SHA-1 hash", e);
+		CodeHashDigest digest = new CodeHashDigest();
+		while (tokenReader.next()) {
+			digest.update(tokenReader.getText());
 		}
+		codehash = digest.getHash();
 	}
 	
 	/**
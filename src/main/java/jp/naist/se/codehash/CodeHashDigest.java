@@ -0,0 +1,88 @@
+package jp.naist.se.codehash;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * An incremental SHA-1 digest of tokens ignoring comments and white space.
+ * Each token is followed by '\0'.
+ * The result is the same as the SHA-1 hash of String.getBytes() of the concatenated tokens,
+ * while the tokens are never concatenated.
+ */
+public class CodeHashDigest {
+
+	private static final String HASH_ALGORITHM = "SHA-1";
+	private static final Charset CHARSET = Charset.defaultCharset();
+	
+	/**
+	 * True if the default charset encodes each ASCII character to the same byte.
+	 */
+	private static final boolean ASCII_COMPATIBLE = isAsciiCompatible(CHARSET);
+
+	private MessageDigest digest;
+	private byte[] buffer;
+	private byte[] result;
+
+	public CodeHashDigest() {
+		try {
+			digest = MessageDigest.getInstance(HASH_ALGORITHM);
+			buffer = new byte[256];
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("Failed to compute SHA-1 hash", e);
+		}
+	}
+	
+	private static boolean isAsciiCompatible(Charset charset) {
+		char[] ascii = new char[128];
+		for (int i=0; i<ascii.length; i++) {
+			ascii[i] = (char)i;
+		}
+		byte[] bytes = new String(ascii).getBytes(charset);
+		if (bytes.length != ascii.length) return false;
+		for (int i=0; i<bytes.length; i++) {
+			if (bytes[i] != i) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Add a token to the digest.
+	 * @param token is a token text.  Null is ignored (PHPLexer may return null).
+	 */
+	public void update(String token) {
+		if (token == null) return;
+		
+		int length = token.length();
+		if (ASCII_COMPATIBLE) {
+			if (buffer.length < length + 1) {
+				buffer = new byte[Math.max(length + 1, buffer.length * 2)];
+			}
+			int i = 0;
+			while (i < length) {
+				char c = token.charAt(i);
+				if (c >= 0x80) break;
+				buffer[i++] = (byte)c;
+			}
+			if (i == length) {
+				buffer[length] = 0;
+				digest.update(buffer, 0, length + 1);
+				return;
+			}
+		}
+		// Non-ASCII characters are translated by the default charset
+		digest.update(token.getBytes(CHARSET));
+		digest.update((byte)0);
+	}
+	
+	/**
+	 * Complete the computation.  
+	 * @return the hash value.  The same array is returned for subsequent calls.
+	 */
+	public byte[] getHash() {
+		if (result == null) {
+			result = digest.digest();
+		}
+		return result;
+	}
+}
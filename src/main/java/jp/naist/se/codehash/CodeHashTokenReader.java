@@ -1,38 +1,29 @@
 package jp.naist.se.codehash;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-
 /**
  * A token reader that computes codehash (ignoring comments and whitespace) during the process of tokens.
  */
 public class CodeHashTokenReader implements TokenReader {
 
-	private static final String HASH_ALGORITHM = "SHA-1";
 	private TokenReader parent;
-	private StringBuilder recorder;
+	private CodeHashDigest digest;
 	
 	/**
 	 * 
 	 * @param parent
 	 * @param filesize specifies the file size processed by the given token reader.  
-	 * This is used to allocate an appropriate size of buffer just for efficiency. 
+	 * It is no longer used since tokens are hashed incrementally.
 	 */
 	public CodeHashTokenReader(TokenReader parent, long filesize) {
 		this.parent = parent;
-		this.recorder = new StringBuilder((int)filesize);
+		this.digest = new CodeHashDigest();
 	}
 
 	@Override
 	public boolean next() {
 		boolean hasNext = parent.next();
 		if (hasNext) {
-			String token = parent.getText();
-			// PHPLexer may return null
-			if (token != null) { 
-				recorder.append(token);
-				recorder.append('\0');
-			}
+			digest.update(parent.getText());
 		}
 		return hasNext;
 	}
@@ -69,12 +60,7 @@ public class CodeHashTokenReader implements TokenReader {
 	 * @return a resultant hash of source code content . 
 	 */
 	public byte[] getHash() {
-		try {
-			MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
-			return digest.digest(recorder.toString().getBytes());
-		} catch (NoSuchAlgorithmException e) {
-			throw new RuntimeException("Failed to compute SHA-1 hash", e);
-		}
+		return digest.getHash();
 	}
 	
 	@Override
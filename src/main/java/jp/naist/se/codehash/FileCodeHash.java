@@ -1,13 +1,24 @@
 package jp.naist.se.codehash;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
+import jp.naist.se.codehash.binary.BinaryHashFormat;
+import jp.naist.se.codehash.binary.BinaryHashWriter;
+import jp.naist.se.codehash.binary.HashCache;
 
 /**
  * A main class to calculate code hash and minhash  
@@ -16,37 +27,214 @@ public class FileCodeHash {
 
 	public static final String ARG_MINHASH_IGNORE_DUPLICATION = "-ignoreduplication";
 	public static final String FILEHASH_ALGORITHM = "SHA-1";
+
+	/**
+	 * An option to process files using multiple threads, e.g. "-threads:8".
+	 */
+	public static final String ARG_THREADS = "-threads:";
+	
+	/**
+	 * An option to report files in the order of their absolute paths.
+	 */
+	public static final String ARG_SORT = "-sort";
+	
+	/**
+	 * An option to write records into a binary file instead of STDOUT, e.g. "-binary:hash.bin".
+	 */
+	public static final String ARG_BINARY = "-binary:";
+	
+	/**
+	 * An option to warm up lexers for languages before processing files, e.g. "-warmup:JAVA,CPP".
+	 */
+	public static final String ARG_WARMUP = "-warmup:";
+	
+	/**
+	 * An option to reuse records of unchanged files computed by the previous run, e.g. "-cache:hash.cache".
+	 */
+	public static final String ARG_CACHE = "-cache:";
+	
+	/**
+	 * An option to reuse hash values of a file for the following files having the same content.
+	 */
+	public static final String ARG_DEDUP = "-dedup";
+	
+	/**
+	 * A file modified within this period before it is read may be modified again 
+	 * without changing its last modified time.  
+	 * Such a file is verified by its content in the next run.
+	 */
+	private static final long RACY_MODIFICATION_MILLIS = 2000;
+	
+	/**
+	 * The number of tasks per thread submitted ahead of the output.
+	 * This bounds the number of rows waiting to be written.
+	 */
+	private static final int TASKS_PER_THREAD = 64;
 	
 	public static void main(String[] args) {
 		boolean ignoreDuplication = false;
+		boolean sortByPath = false;
+		boolean dedup = false;
+		int threads = 1;
+		File binaryFile = null;
+		File cacheFile = null;
 		LinkedList<File> files = new LinkedList<>();
 		for (String arg: args) {
 			if (arg.equals(ARG_MINHASH_IGNORE_DUPLICATION)) {
 				ignoreDuplication = true;
+			} else if (arg.startsWith(ARG_BINARY)) {
+				binaryFile = new File(arg.substring(ARG_BINARY.length()));
+			} else if (arg.startsWith(ARG_CACHE)) {
+				cacheFile = new File(arg.substring(ARG_CACHE.length()));
+			} else if (arg.equals(ARG_DEDUP)) {
+				dedup = true;
+			} else if (arg.equals(ARG_SORT)) {
+				sortByPath = true;
+			} else if (arg.startsWith(ARG_WARMUP)) {
+				String names = arg.substring(ARG_WARMUP.length());
+				if (!FileType.warmUp(names)) {
+					System.err.println("Unsupported language: " + names);
+					return;
+				}
+			} else if (arg.startsWith(ARG_THREADS)) {
+				String nString = arg.substring(ARG_THREADS.length());
+				try {
+					threads = Integer.parseInt(nString);
+					if (threads < 1) {
+						System.err.println("The number of threads must be a positive integer: " + nString);
+						return;
+					}
+				} catch (NumberFormatException e) {
+					System.err.println("Invalid number: " + nString);
+					return;
+				}
 			} else {
 				files.add(new File(arg));
 			}
 		}
 		
 		if (!files.isEmpty()) {
-			FileCodeHash h = new FileCodeHash(ignoreDuplication);
-			h.scan(files);
+			FileCodeHash h = new FileCodeHash(ignoreDuplication, threads, sortByPath);
+			h.setDeduplication(dedup);
+			HashCache cache = null;
+			if (cacheFile != null) {
+				try {
+					cache = new HashCache(cacheFile);
+					h.setCache(cache);
+				} catch (IOException e) {
+					System.err.println("Failed to open " + cacheFile.getAbsolutePath() + ": " + e.getMessage());
+					return;
+				}
+			}
+			try {
+				if (binaryFile != null) {
+					try (BinaryHashWriter w = new BinaryHashWriter(binaryFile)) {
+						h.setOutput(w);
+						h.scan(files);
+					} catch (IOException e) {
+						System.err.println("Failed to write " + binaryFile.getAbsolutePath() + ": " + e.getMessage());
+					}
+				} else {
+					h.scan(files);
+				}
+			} finally {
+				// Remove the temporary file of the cache even if the scan failed
+				if (cache != null) {
+					try {
+						cache.close();
+					} catch (IOException e) {
+						System.err.println("Failed to write " + cacheFile.getAbsolutePath() + ": " + e.getMessage());
+					}
+				}
+			}
 		}  else {
 			System.err.println("No files are specified.");
 		}
 	}
 	
 	private boolean ignoreDuplication;
+	private int threads;
+	private boolean sortByPath;
+	private HashCache cache;
+	private ConcurrentHashMap<String, HashRecord> firstRecords;
+	private HashRecordWriter output = new HashRecordWriter() {
+		@Override
+		public void write(HashRecord record) {
+			System.out.println(toRow(record));
+		}
+	};
 	
 	/**
 	 * 
 	 * @param ignoreDuplication If true, this object uses a set rather than a multiset to manage N-grams. 
 	 */
 	public FileCodeHash(boolean ignoreDuplication) {
+		this(ignoreDuplication, 1, false);
+	}
+	
+	/**
+	 * @param ignoreDuplication If true, this object uses a set rather than a multiset to manage N-grams. 
+	 * @param threads specifies the number of threads to process files.
+	 * @param sortByPath If true, files are reported in the order of their absolute paths.
+	 * Otherwise, files are reported in the order of the directory traversal (single thread) 
+	 * or in the order of completion (multiple threads).
+	 */
+	public FileCodeHash(boolean ignoreDuplication, int threads, boolean sortByPath) {
 		this.ignoreDuplication = ignoreDuplication;
+		this.threads = Math.max(1, threads);
+		this.sortByPath = sortByPath;
+	}
+	
+	/**
+	 * @param output receives records instead of STDOUT.
+	 */
+	public void setOutput(HashRecordWriter output) {
+		this.output = output;
+	}
+	
+	/**
+	 * @param dedup If true, a file having the same content and language as a processed file is not tokenized.  
+	 * The record of the processed file is reused with the path of the file.
+	 * This object keeps a record for each distinct content.
+	 */
+	public void setDeduplication(boolean dedup) {
+		this.firstRecords = dedup ? new ConcurrentHashMap<String, HashRecord>() : null;
+	}
+	
+	/**
+	 * @param cache provides records of unchanged files and receives all records computed by this object.
+	 * The caller is responsible to close the cache after the scan.
+	 */
+	public void setCache(HashCache cache) {
+		this.cache = cache;
 	}
 	
 	public void scan(LinkedList<File> files) {
+		ArrayList<File> targets = new ArrayList<>();
+		collect(files, targets);
+		if (sortByPath) {
+			targets.sort(new Comparator<File>() {
+				@Override
+				public int compare(File o1, File o2) {
+					return o1.getAbsolutePath().compareTo(o2.getAbsolutePath());
+				}
+			});
+		}
+		if (threads > 1) {
+			processInParallel(targets);
+		} else {
+			for (File f: targets) {
+				process(f);
+			}
+		}
+	}
+	
+	/**
+	 * Collect files by a breadth-first traversal of directories.
+	 * @param files specifies files and directories to be visited.  The list is consumed by this method.
+	 * @param targets receives files to be processed. 
+	 */
+	private void collect(LinkedList<File> files, ArrayList<File> targets) {
 		while (!files.isEmpty()) {
 			File f = files.removeFirst();
 			if (f.isDirectory() && f.canRead()) {
@@ -57,60 +245,106 @@ public class FileCodeHash {
 						!c.getName().equals("..")) {
 						files.add(c);
 					} else if (c.isFile() && f.canRead()) {
-						process(c);
+						targets.add(c);
 					}
 				}
 			} else if (f.isFile() && f.canRead()) {
-				process(f);
+				targets.add(f);
+			}
+		}
+	}
+	
+	/**
+	 * Process files on a work-stealing pool.
+	 * If sortByPath is enabled, rows are written in the order of the given list. 
+	 * Otherwise, each row is written as soon as it is computed.
+	 * @param targets
+	 */
+	private void processInParallel(ArrayList<File> targets) {
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			ArrayDeque<Future<HashRecord>> pending = new ArrayDeque<>();
+			for (final File f: targets) {
+				pending.add(pool.submit(new Callable<HashRecord>() {
+					@Override
+					public HashRecord call() throws IOException {
+						HashRecord record = computeRecord(f);
+						if (record != null && !sortByPath) {
+							output.write(record);
+							return null;
+						}
+						return record;
+					}
+				}));
+				if (pending.size() >= threads * TASKS_PER_THREAD) {
+					write(pending.removeFirst());
+				}
+			}
+			while (!pending.isEmpty()) {
+				write(pending.removeFirst());
 			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	private void write(Future<HashRecord> result) {
+		try {
+			HashRecord record = result.get();
+			if (record != null) {
+				output.write(record);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
 	}
 	
 	public void process(File f) {
+		HashRecord record = computeRecord(f);
+		if (record != null) {
+			try {
+				output.write(record);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Compute hash values for a file.
+	 * @param f specifies a file.
+	 * @return a TSV row for the file.  
+	 * The method returns null if the file is not a supported source file or it cannot be read. 
+	 */
+	public String hash(File f) {
+		HashRecord record = computeRecord(f);
+		return record != null ? toRow(record) : null;
+	}
+	
+	/**
+	 * Compute hash values for a file.
+	 * @param f specifies a file.
+	 * @return a record for the file.  
+	 * The method returns null if the file is not a supported source file or it cannot be read. 
+	 * If a cache is set, a cached record is returned for an unchanged file. 
+	 */
+	public HashRecord computeRecord(File f) {
 		try {
 			String path = f.getAbsolutePath();
 			FileType t = FileType.getFileTypeFromName(path);
 			if (FileType.isSupported(t)) {
 				try {
+					if (cache != null) {
+						return computeRecordWithCache(f, path, t);
+					}
 					byte[] content = Files.readAllBytes(f.toPath());
 					MessageDigest d = MessageDigest.getInstance(FILEHASH_ALGORITHM);
-					String sha1 = HashStringUtil.bytesToHex(d.digest(content));
-					String codehash = null;
-					String minhash = null;
-					String normalizedMinhash = null;
-					int ngramCount = 0;
-					TokenReader tokenReader = FileType.createReader(t, new ByteArrayInputStream(content));
-					CodeHashTokenReader wrapper = new CodeHashTokenReader(tokenReader, f.length());
-					MurmurMinHash h = new MurmurMinHash(GitCodeHash.BBITMINHASH_BITCOUNT, GitCodeHash.BBITMINHASH_NGRAM_SIZE, wrapper);
-					if (ignoreDuplication) {
-						minhash = HashStringUtil.bytesToHex(h.getHashIgnoreDuplicatedElements());
-						normalizedMinhash = HashStringUtil.bytesToHex(h.getNormalizedHashIgnoreDuplicatedElements());
-					} else {
-						minhash = HashStringUtil.bytesToHex(h.getHash());
-						normalizedMinhash = HashStringUtil.bytesToHex(h.getNormalizedHash());
-					}
-					codehash = HashStringUtil.bytesToHex(wrapper.getHash());
-					ngramCount = h.getNgramCount();
-					
-					StringBuilder result = new StringBuilder(256);
-					result.append(path);
-					result.append("\t");
-					result.append(sha1);
-					result.append("\t");
-					result.append(t.name());
-					result.append("\t");
-					result.append(codehash);
-					result.append("\t");
-					result.append(minhash);
-					result.append("\t");
-					result.append(normalizedMinhash);
-					result.append("\t");
-					result.append(f.length());
-					result.append("\t");
-					result.append(tokenReader.getTokenCount());
-					result.append("\t");
-					result.append(ngramCount);
-					System.out.println(result.toString());
+					byte[] sha1 = d.digest(content);
+					return computeRecord(f, path, t, content, sha1);
 				} catch (NoSuchAlgorithmException e) {
 				}
 			}
@@ -118,7 +352,105 @@ public class FileCodeHash {
 		} catch (IOException e) {
 			// Ignore 
 		}
+		return null;
+	}
+	
+	/**
+	 * Look up the cache before computing hash values.
+	 * A file having the same size and last modified time as the cached record is not read. 
+	 * A file having a different last modified time is read to compare its SHA-1 hash with the record. 
+	 */
+	private HashRecord computeRecordWithCache(File f, String path, FileType t) throws IOException, NoSuchAlgorithmException {
+		int flags = ignoreDuplication ? BinaryHashFormat.FLAG_IGNORE_DUPLICATION : 0;
+		BasicFileAttributes attr = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+		long lastModified = attr.lastModifiedTime().toMillis();
+		HashRecord record = cache.get(path, attr.size(), lastModified, flags);
+		if (record != null) {
+			addFirstRecord(record);
+		} else {
+			long readTime = System.currentTimeMillis();
+			byte[] content = Files.readAllBytes(f.toPath());
+			MessageDigest d = MessageDigest.getInstance(FILEHASH_ALGORITHM);
+			byte[] sha1 = d.digest(content);
+			record = cache.get(path, sha1, flags);
+			if (record == null) {
+				record = computeRecord(f, path, t, content, sha1);
+			} else {
+				addFirstRecord(record);
+			}
+			if (lastModified > readTime - RACY_MODIFICATION_MILLIS) {
+				lastModified = 0;
+			}
+		}
+		cache.put(record, flags, lastModified);
+		return record;
+	}
+	
+	/**
+	 * Make a cached record available for the following files having the same content.
+	 */
+	private void addFirstRecord(HashRecord record) {
+		if (firstRecords != null) {
+			firstRecords.putIfAbsent(getContentKey(record.getLang(), record.getSha1()), record);
+		}
+	}
+	
+	private static String getContentKey(FileType t, byte[] sha1) {
+		return t.name() + ":" + HashStringUtil.bytesToHex(sha1);
+	}
+	
+	private HashRecord computeRecord(File f, String path, FileType t, byte[] content, byte[] sha1) {
+		String key = null;
+		if (firstRecords != null) {
+			key = getContentKey(t, sha1);
+			HashRecord first = firstRecords.get(key);
+			if (first != null) {
+				return new HashRecord(path, sha1, t, first.getCodehash(), first.getMinhash(), first.getNormalizedMinhash(), first.getFileLength(), first.getTokenCount(), first.getNgramCount());
+			}
+		}
 		
+		byte[] minhash;
+		byte[] normalizedMinhash;
+		TokenReader tokenReader = FileType.createReader(t, content);
+		CodeHashTokenReader wrapper = new CodeHashTokenReader(tokenReader, f.length());
+		MurmurMinHash h = new MurmurMinHash(GitCodeHash.BBITMINHASH_BITCOUNT, GitCodeHash.BBITMINHASH_NGRAM_SIZE, wrapper);
+		if (ignoreDuplication) {
+			minhash = h.getHashIgnoreDuplicatedElements();
+			normalizedMinhash = h.getNormalizedHashIgnoreDuplicatedElements();
+		} else {
+			minhash = h.getHash();
+			normalizedMinhash = h.getNormalizedHash();
+		}
+		HashRecord record = new HashRecord(path, sha1, t, wrapper.getHash(), minhash, normalizedMinhash, f.length(), tokenReader.getTokenCount(), h.getNgramCount());
+		if (key != null) {
+			firstRecords.putIfAbsent(key, record);
+		}
+		return record;
+	}
+	
+	/**
+	 * @return a TSV row for a record.
+	 */
+	public static String toRow(HashRecord record) {
+		StringBuilder result = new StringBuilder(256);
+		result.append(record.getPath());
+		result.append("\t");
+		result.append(HashStringUtil.bytesToHex(record.getSha1()));
+		result.append("\t");
+		result.append(record.getLang().name());
+		result.append("\t");
+		result.append(HashStringUtil.bytesToHex(record.getCodehash()));
+		result.append("\t");
+		result.append(HashStringUtil.bytesToHex(record.getMinhash()));
+		result.append("\t");
+		result.append(HashStringUtil.bytesToHex(record.getNormalizedMinhash()));
+		result.append("\t");
+		result.append(record.getFileLength());
+		result.append("\t");
+		result.append(record.getTokenCount());
+		result.append("\t");
+		result.append(record.getNgramCount());
+		return result.toString();
 	}
 	
 	
@@ -2,11 +2,24 @@ package jp.naist.se.codehash;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
 import org.antlr.v4.runtime.CaseChangingCharStream;
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CodePointBuffer;
+import org.antlr.v4.runtime.CodePointCharStream;
+import org.antlr.v4.runtime.IntStream;
 import org.antlr.v4.runtime.Lexer;
 import org.antlr.v4.runtime.Token;
 
@@ -33,6 +46,11 @@ public enum FileType {
 	private static HashMap<String, FileType> filetype;
 	private static HashMap<String, FileType> extToFiletype;
 	
+	/**
+	 * The minimum size of a file to be memory-mapped by createReader(FileType, Path).
+	 */
+	public static final long MAPPED_FILE_SIZE = 16 * 1024 * 1024;
+	
 	static {
 		filetype = new HashMap<>(64);
 		filetype.put("C", FileType.CPP);
@@ -109,81 +127,284 @@ public enum FileType {
 	}
 
 	/**
-	 * Create a reader object
+	 * Filters to skip comments and whitespace.  They are stateless and shared by readers.
+	 */
+	private static final Filter JAVA_FILTER = new AntlrTokenReader.Filter() {
+		@Override
+		public boolean accept(Token t) {
+			return t.getChannel() != Java8Lexer.HIDDEN;
+		}
+	};
+	private static final Filter CPP_FILTER = new AntlrTokenReader.Filter() {
+		@Override
+		public boolean accept(Token t) {
+			return t.getChannel() != CPP14Lexer.HIDDEN;
+		}
+	};
+	private static final Filter ECMASCRIPT_FILTER = new AntlrTokenReader.Filter() {
+		@Override
+		public boolean accept(Token t) {
+			return t.getChannel() != ECMAScriptLexer.HIDDEN;
+		}
+	};
+	private static final Filter PYTHON_FILTER = new AntlrTokenReader.Filter() {
+		@Override
+		public boolean accept(Token t) {
+			return (t.getChannel() != Python3Lexer.HIDDEN) &&
+					(t.getType() != Python3Lexer.NEWLINE); 
+					//(t.getType() != Python3Parser.INDENT) &&
+					//(t.getType() != Python3Parser.DEDENT);
+		}
+	};
+	private static final Filter PHP_FILTER = new AntlrTokenReader.Filter() {
+		@Override
+		public boolean accept(Token t) {
+			return t.getChannel() != PhpLexer.PhpComments &&
+					t.getChannel() != PhpLexer.SkipChannel &&
+					t.getChannel() != PhpLexer.ErrorLexem;
+		}
+	};
+	private static final Filter CSHARP_FILTER = new AntlrTokenReader.Filter() {
+		@Override
+		public boolean accept(Token t) {
+			return (t.getChannel() != CSharpLexer.HIDDEN) &&
+					(t.getChannel() != CSharpLexer.COMMENTS_CHANNEL);
+		}
+	};
+
+	/**
+	 * Normalizers are stateless and shared by readers.
+	 */
+	private static final Normalizer JAVA_NORMALIZER = new Java8Normalizer();
+	private static final Normalizer CPP_NORMALIZER = new CPP14Normalizer();
+	private static final Normalizer ECMASCRIPT_NORMALIZER = new ECMAScriptNormalizer();
+	private static final Normalizer PYTHON_NORMALIZER = new Python3Normalizer();
+	private static final Normalizer CSHARP_NORMALIZER = new CSharpNormalizer();
+
+	/**
+	 * Lexers released by readers for each thread, indexed by ordinal().
+	 * A lexer is taken out of the array while it is used by a reader,
+	 * so that two readers never share a lexer.
+	 */
+	private static final ThreadLocal<Lexer[]> lexers = new ThreadLocal<Lexer[]>() {
+		@Override
+		protected Lexer[] initialValue() {
+			return new Lexer[FileType.values().length];
+		}
+	};
+
+	/**
+	 * Create a reader object.
+	 * A lexer is reused if a reader created by the current thread has reached EOF. 
 	 * @param filetype specifies a programming language.
 	 * @param input is a stream of the content to be processed.
 	 * @return a TokenReader object to read the input
 	 */
 	public static TokenReader createReader(FileType filetype, InputStream input) {
 		try {
-			CharStream stream = CharStreams.fromStream(input);
-			switch (filetype) {
-			case JAVA:
-			{
-				Java8Lexer lexer = new Java8Lexer(stream);
-				return new AntlrTokenReader(lexer, new AntlrTokenReader.Filter() {
-					@Override
-					public boolean accept(Token t) {
-						return t.getChannel() != Java8Lexer.HIDDEN;
-					}
-				}, new Java8Normalizer());
-			}
-			case CPP:
-			{
-				CPP14Lexer lexer = new CPP14Lexer(stream);
-				//CommonTokenStream c = new CommonTokenStream(lexer, Java8Lexer.HIDDEN);
-				//System.out.println(c.size());
-				return new AntlrTokenReader(lexer, new AntlrTokenReader.Filter() {
-					@Override
-					public boolean accept(Token t) {
-						return t.getChannel() != CPP14Lexer.HIDDEN;
-					}
-				}, new CPP14Normalizer());
+			return createReader(filetype, CharStreams.fromStream(input));
+		} catch (IOException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Create a reader object for a content on memory.
+	 * The array must not be modified while the reader is used, 
+	 * since an ASCII content is directly read from the array without copy.
+	 * @param filetype specifies a programming language.
+	 * @param content is the content to be processed.  It is decoded as UTF-8. 
+	 * @return a TokenReader object to read the content
+	 */
+	public static TokenReader createReader(FileType filetype, byte[] content) {
+		return createReader(filetype, ByteBuffer.wrap(content));
+	}
+
+	/**
+	 * Create a reader object for a content in a buffer.
+	 * The buffer must not be modified while the reader is used, 
+	 * since an ASCII content in a heap buffer is directly read from the buffer without copy.
+	 * @param filetype specifies a programming language.
+	 * @param content is the content between the position and the limit of the buffer.  
+	 * It is decoded as UTF-8.  The position of the buffer is not changed.
+	 * @return a TokenReader object to read the content
+	 */
+	public static TokenReader createReader(FileType filetype, ByteBuffer content) {
+		try {
+			return createReader(filetype, toCharStream(content));
+		} catch (IOException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Create a reader object for a file.
+	 * A file larger than MAPPED_FILE_SIZE is memory-mapped rather than loaded on the heap.
+	 * @param filetype specifies a programming language.
+	 * @param path specifies a file to be processed.  It is decoded as UTF-8.
+	 * @return a TokenReader object to read the file
+	 * @throws IOException if the file cannot be read
+	 */
+	public static TokenReader createReader(FileType filetype, Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < MAPPED_FILE_SIZE) {
+				return createReader(filetype, Files.readAllBytes(path));
+			} else if (size <= Integer.MAX_VALUE) {
+				// A mapped buffer is decoded into code points, since ANTLR requires a heap array
+				return createReader(filetype, toCharStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, size)));
+			} else {
+				throw new IOException("File too large: " + path);
 			}
-			case ECMASCRIPT:
-			{
-				ECMAScriptLexer lexer = new ECMAScriptLexer(stream);
-				return new AntlrTokenReader(lexer, new AntlrTokenReader.Filter() {
-					@Override
-					public boolean accept(Token t) {
-						return t.getChannel() != ECMAScriptLexer.HIDDEN;
-					}
-				}, new ECMAScriptNormalizer());
+		}
+	}
+
+	/**
+	 * Translate UTF-8 bytes into a CharStream.
+	 * An ASCII content starting at the beginning of a heap array is used as a stream without copy.
+	 * An ASCII content at another offset is copied, since ANTLR reads the array from the beginning.
+	 * Otherwise, the content is decoded in the same way as CharStreams.fromStream. 
+	 */
+	private static CharStream toCharStream(ByteBuffer content) throws IOException {
+		final ByteBuffer buf = content.slice();
+		if (buf.hasArray() && isAscii(buf.array(), buf.arrayOffset(), buf.remaining())) {
+			ByteBuffer ascii = buf;
+			if (buf.arrayOffset() != 0) {
+				ascii = ByteBuffer.wrap(Arrays.copyOfRange(buf.array(), buf.arrayOffset(), buf.arrayOffset() + buf.remaining()));
 			}
-			case PYTHON:
-			{
-				Python3Lexer lexer = new Python3Lexer(stream);
-				return new Python3LexerReader(lexer);
+			return CodePointCharStream.fromBuffer(CodePointBuffer.withBytes(ascii), IntStream.UNKNOWN_SOURCE_NAME);
+		}
+		ReadableByteChannel channel = new ReadableByteChannel() {
+			@Override
+			public boolean isOpen() {
+				return true;
 			}
-			case PHP:
-			{
-				PhpLexer lexer = new PhpLexer(new CaseChangingCharStream(stream, false));
-				return new AntlrTokenReader(lexer, new AntlrTokenReader.Filter() {
-					@Override
-					public boolean accept(Token t) {
-						return t.getChannel() != PhpLexer.PhpComments &&
-								t.getChannel() != PhpLexer.SkipChannel &&
-								t.getChannel() != PhpLexer.ErrorLexem;
-					}
-				}, null);
+			@Override
+			public void close() {
 			}
-			case CSHARP:
-			{
-				CSharpLexer lexer = new CSharpLexer(stream);
-				return new AntlrTokenReader(lexer, new AntlrTokenReader.Filter() {
-					@Override
-					public boolean accept(Token t) {
-						return (t.getChannel() != CSharpLexer.HIDDEN) &&
-								(t.getChannel() != CSharpLexer.COMMENTS_CHANNEL);
-					}
-				}, new CSharpNormalizer());
+			@Override
+			public int read(ByteBuffer dst) {
+				if (!buf.hasRemaining()) return -1;
+				int n = Math.min(dst.remaining(), buf.remaining());
+				ByteBuffer chunk = buf.duplicate();
+				chunk.limit(chunk.position() + n);
+				dst.put(chunk);
+				buf.position(buf.position() + n);
+				return n;
 			}
-			default:
-				return null;
-			
+		};
+		return CharStreams.fromChannel(channel, StandardCharsets.UTF_8, 4096, CodingErrorAction.REPLACE, IntStream.UNKNOWN_SOURCE_NAME, buf.remaining());
+	}
+	
+	/**
+	 * @return true if all bytes in the range are 7-bit characters.
+	 */
+	private static boolean isAscii(byte[] content, int offset, int length) {
+		int end = offset + length;
+		for (int i=offset; i<end; i++) {
+			if (content[i] < 0) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Create a reader object for a character stream.
+	 */
+	private static TokenReader createReader(FileType filetype, CharStream stream) {
+		switch (filetype) {
+		case JAVA:
+			return new AntlrTokenReader(getLexer(filetype, stream), JAVA_FILTER, JAVA_NORMALIZER, filetype);
+		case CPP:
+			return new AntlrTokenReader(getLexer(filetype, stream), CPP_FILTER, CPP_NORMALIZER, filetype);
+		case ECMASCRIPT:
+			return new AntlrTokenReader(getLexer(filetype, stream), ECMASCRIPT_FILTER, ECMASCRIPT_NORMALIZER, filetype);
+		case PYTHON:
+			return new Python3LexerReader(getLexer(filetype, stream), filetype);
+		case PHP:
+			return new AntlrTokenReader(getLexer(filetype, new CaseChangingCharStream(stream, false)), PHP_FILTER, null, filetype);
+		case CSHARP:
+			return new AntlrTokenReader(getLexer(filetype, stream), CSHARP_FILTER, CSHARP_NORMALIZER, filetype);
+		default:
+			return null;
+		}
+	}
+	
+	/**
+	 * @return a lexer released by a reader in the current thread, or a new lexer.
+	 */
+	private static Lexer getLexer(FileType filetype, CharStream stream) {
+		Lexer[] released = lexers.get();
+		Lexer lexer = released[filetype.ordinal()];
+		if (lexer != null) {
+			released[filetype.ordinal()] = null;
+			lexer.setInputStream(stream);
+			return lexer;
+		}
+		switch (filetype) {
+		case JAVA:
+			return new Java8Lexer(stream);
+		case CPP:
+			return new CPP14Lexer(stream);
+		case ECMASCRIPT:
+			return new ECMAScriptLexer(stream);
+		case PYTHON:
+			return new Python3Lexer(stream);
+		case PHP:
+			return new PhpLexer(stream);
+		case CSHARP:
+			return new CSharpLexer(stream);
+		default:
+			throw new IllegalArgumentException("Unsupported type: " + filetype);
+		}
+	}
+	
+	/**
+	 * Keep a lexer for the next reader in the current thread.
+	 * @param filetype specifies the language of the lexer.
+	 * @param lexer is no longer used by its reader.
+	 */
+	static void releaseLexer(FileType filetype, Lexer lexer) {
+		lexers.get()[filetype.ordinal()] = lexer;
+	}
+	
+	/**
+	 * Warm up lexers for languages.
+	 * Only languages to be processed should be specified, 
+	 * since lexers of other languages make the JIT-compiled code of the lexers slower.
+	 * @param typenames is a comma-separated list of language names accepted by getFileType, e.g. "JAVA,CPP".
+	 * @return false if an unsupported name is included.  No lexer is warmed up in that case.
+	 */
+	public static boolean warmUp(String typenames) {
+		ArrayList<FileType> types = new ArrayList<>();
+		for (String name: typenames.split(",")) {
+			FileType t = getFileType(name);
+			if (!isSupported(t)) return false;
+			types.add(t);
+		}
+		for (FileType t: types) {
+			warmUp(t);
+		}
+		return true;
+	}
+	
+	/**
+	 * Tokenize a bundled sample file for a language.
+	 * ANTLR lexers of the same language share a DFA built during tokenization,
+	 * so that the warm-up makes early files in a run as fast as later ones.
+	 * The DFA is not persisted; it is rebuilt in each JVM.
+	 * @param filetype specifies a language.  Nothing happens for an unsupported language.
+	 */
+	public static void warmUp(FileType filetype) {
+		if (!isSupported(filetype)) return;
+		try (InputStream sample = FileType.class.getResourceAsStream("warmup/" + filetype.name().toLowerCase() + ".txt")) {
+			if (sample == null) return;
+			TokenReader reader = createReader(filetype, sample);
+			if (reader == null) return;
+			while (reader.next()) {
+				reader.getNormalizedText();
 			}
 		} catch (IOException e) {
-			return null;
+			// The warm-up is optional
 		}
 	}
 	
@@ -191,16 +412,8 @@ public enum FileType {
 	 * An internal class to process Python files.
 	 */
 	private static class Python3LexerReader extends AntlrTokenReader {
-		public Python3LexerReader(Lexer lexer) {
-			super(lexer, new AntlrTokenReader.Filter() {
-				@Override
-				public boolean accept(Token t) {
-					return (t.getChannel() != Python3Lexer.HIDDEN) &&
-							(t.getType() != Python3Lexer.NEWLINE); 
-							//(t.getType() != Python3Parser.INDENT) &&
-							//(t.getType() != Python3Parser.DEDENT);
-				}
-			}, new Python3Normalizer());
+		public Python3LexerReader(Lexer lexer, FileType pooledType) {
+			super(lexer, PYTHON_FILTER, PYTHON_NORMALIZER, pooledType);
 		}
 		/**
 		 * Overriding tokens 
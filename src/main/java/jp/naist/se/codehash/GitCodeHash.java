@@ -6,16 +6,38 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.LineNumberReader;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.internal.storage.file.Pack;
+import org.eclipse.jgit.internal.storage.file.PackIndex;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
 
+import jp.naist.se.codehash.binary.BinaryHashWriter;
+import jp.naist.se.codehash.binary.BlobHashCache;
 import jp.naist.se.codehash.sha1.SHA1MinHash;
 import jp.naist.se.codehash.sha1.SHA1MinHashMSR2017;
 
@@ -26,19 +48,115 @@ import jp.naist.se.codehash.sha1.SHA1MinHashMSR2017;
  */
 public class GitCodeHash {
 
-	public enum HashType { CodeHash, SHA1MinHash, Murmur3MinHash, SHA1MinHashInPaper };
+	public enum HashType { CodeHash, SHA1MinHash, Murmur3MinHash, SHA1MinHashInPaper, OnePermutationMinHash };
 	public static int BBITMINHASH_BITCOUNT = 2048;
 	public static int BBITMINHASH_NGRAM_SIZE = 3;
 	
+	/**
+	 * An option to process blobs using multiple threads, e.g. "-threads:8".
+	 */
+	public static final String ARG_THREADS = "-threads:";
+
+	/**
+	 * An option to write rows in the order of completion when multiple threads are used.
+	 */
+	public static final String ARG_UNORDERED = "-unordered";
+
+	/**
+	 * The number of blobs per thread submitted ahead of the output.
+	 * This bounds the number of rows waiting to be written.
+	 */
+	private static final int TASKS_PER_THREAD = 64;
+
+	/**
+	 * An option to process blobs in the order of their locations in pack files.
+	 */
+	public static final String ARG_PACK_ORDER = "-packorder";
+
+	/**
+	 * The size of a delta base cache for each reader in the pack order mode.
+	 * JGit's default (10 MB) is too small to keep bases of long delta chains in a large repository.
+	 */
+	private static final int PACK_ORDER_DELTA_BASE_CACHE_LIMIT = 64 * WindowCacheConfig.MB;
+	
+	/**
+	 * An option to write output files in the binary format instead of TSV.
+	 */
+	public static final String ARG_BINARY = "-binary";
+	
+	/**
+	 * An option to warm up lexers for languages before processing blobs, e.g. "-warmup:JAVA,CPP".
+	 */
+	public static final String ARG_WARMUP = "-warmup:";
+	
+	/**
+	 * An option to reuse hash values of blobs processed before, e.g. "-cache:blobs.cache".
+	 * The cache is shared by all the repositories in a CSV file.
+	 */
+	public static final String ARG_CACHE = "-cache:";
+	
 	/**
 	 * Extract hash values for source file contents excluding whitespace and comments from Git directories.
 	 * @param args The first argument specifies a CSV file.
 	 * The file must includes a repo path, a csv file path including blob hash and 
-	 * an output file path, and a hash type (codehash, minhash, or sha1minhash).   
+	 * an output file path, and a hash type (codehash, minhash, sha1minhash, or ophminhash).   
+	 * The following arguments are options: "-threads:N", "-unordered", "-packorder", "-binary", "-warmup:LANG", and "-cache:FILE".
 	 */
 	public static void main(String[] args) { 
-		GitCodeHash analyzer = new GitCodeHash();
 		String inputFileName = args[0];
+		int threads = 1;
+		boolean ordered = true;
+		boolean packOrder = false;
+		boolean binary = false;
+		File cacheFile = null;
+		for (int i=1; i<args.length; i++) {
+			if (args[i].equals(ARG_UNORDERED)) {
+				ordered = false;
+			} else if (args[i].equals(ARG_BINARY)) {
+				binary = true;
+			} else if (args[i].equals(ARG_PACK_ORDER)) {
+				packOrder = true;
+			} else if (args[i].startsWith(ARG_CACHE)) {
+				cacheFile = new File(args[i].substring(ARG_CACHE.length()));
+			} else if (args[i].startsWith(ARG_WARMUP)) {
+				String names = args[i].substring(ARG_WARMUP.length());
+				if (!FileType.warmUp(names)) {
+					System.err.println("Unsupported language: " + names);
+					return;
+				}
+			} else if (args[i].startsWith(ARG_THREADS)) {
+				String nString = args[i].substring(ARG_THREADS.length());
+				try {
+					threads = Integer.parseInt(nString);
+					if (threads < 1) {
+						System.err.println("The number of threads must be a positive integer: " + nString);
+						return;
+					}
+				} catch (NumberFormatException e) {
+					System.err.println("Invalid number: " + nString);
+					return;
+				}
+			} else {
+				System.err.println("Unknown option: " + args[i]);
+				return;
+			}
+		}
+		if (packOrder) {
+			WindowCacheConfig config = new WindowCacheConfig();
+			config.setDeltaBaseCacheLimit(PACK_ORDER_DELTA_BASE_CACHE_LIMIT);
+			config.install();
+		}
+		GitCodeHash analyzer = new GitCodeHash(threads, ordered, packOrder);
+		BlobHashCache cache = null;
+		if (cacheFile != null) {
+			try {
+				cache = new BlobHashCache(cacheFile);
+				analyzer.setCache(cache);
+			} catch (IOException e) {
+				System.err.println("Failed to open " + cacheFile.getAbsolutePath() + ": " + e.getMessage());
+				return;
+			}
+		}
 		
 		try (LineNumberReader outcsv = new LineNumberReader(new FileReader(inputFileName), 65536)) {
 
@@ -48,24 +166,22 @@ public class GitCodeHash {
 					String repoPath = tokens[0];
 					String filelistPath = tokens[1];
 					String outputFilePath = tokens[2];
-					String hashtype = tokens[3];
-					HashType t = HashType.CodeHash;
-					if (hashtype.equals("minhash")) {
-						t = HashType.Murmur3MinHash;
-					} else if (hashtype.equals("sha1minhash")) {
-						t = HashType.SHA1MinHash;
-					} else if (hashtype.equals("sha1minhashInPaper")) {
-						t = HashType.SHA1MinHashInPaper;
-					}
+					HashType t = parseHashType(tokens[3]);
 					
 					File gitDir = new File(repoPath);
 					File outputFile = new File(outputFilePath);
 					if (!outputFile.exists()) {
 						File outputFileTemp = new File(outputFilePath + ".tmp");
 						try (LineNumberReader reader = new LineNumberReader(new FileReader(filelistPath))) {
-							try (PrintWriter w = new PrintWriter(new BufferedWriter(new FileWriter(outputFileTemp), 65536))) {
-								analyzer.parseGitRepository(gitDir, reader, w, t);
-							} 
+							if (binary) {
+								try (BinaryHashWriter w = new BinaryHashWriter(outputFileTemp)) {
+									analyzer.parseGitRepository(gitDir, reader, w, t);
+								}
+							} else {
+								try (PrintWriter w = new PrintWriter(new BufferedWriter(new FileWriter(outputFileTemp), 65536))) {
+									analyzer.parseGitRepository(gitDir, reader, w, t);
+								} 
+							}
 							outputFileTemp.renameTo(outputFile);
 						} catch (IOException e) {
 							e.printStackTrace();
@@ -80,9 +196,61 @@ public class GitCodeHash {
 			e.printStackTrace();
 		}
 		
+		if (cache != null) {
+			try {
+				cache.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 	}
 
+	/**
+	 * @param hashtype is a name of a hash type: codehash, minhash, sha1minhash, sha1minhashInPaper, or ophminhash.
+	 * @return a hash type.  CodeHash is returned for an unknown name.
+	 */
+	public static HashType parseHashType(String hashtype) {
+		if (hashtype.equals("minhash")) {
+			return HashType.Murmur3MinHash;
+		} else if (hashtype.equals("sha1minhash")) {
+			return HashType.SHA1MinHash;
+		} else if (hashtype.equals("sha1minhashInPaper")) {
+			return HashType.SHA1MinHashInPaper;
+		} else if (hashtype.equals("ophminhash")) {
+			return HashType.OnePermutationMinHash;
+		} else {
+			return HashType.CodeHash;
+		}
+	}
+	
+	private int threads;
+	private boolean ordered;
+	private boolean packOrder;
+	private BlobHashCache cache;
+
 	public GitCodeHash() {
+		this(1, true, false);
+	}
+	
+	/**
+	 * @param threads specifies the number of threads to process blobs.
+	 * @param ordered If true, rows are written in the order of blobs to be processed.
+	 * Otherwise, rows are written in the order of completion when multiple threads are used.
+	 * @param packOrder If true, blobs are processed in the order of their offsets in pack files
+	 * rather than the order of a blob list. 
+	 */
+	public GitCodeHash(int threads, boolean ordered, boolean packOrder) {
+		this.threads = Math.max(1, threads);
+		this.ordered = ordered;
+		this.packOrder = packOrder;
+	}
+	
+	/**
+	 * @param cache provides hash values of blobs processed before, and receives hash values computed by this object.
+	 * The caller is responsible to close the cache.
+	 */
+	public void setCache(BlobHashCache cache) {
+		this.cache = cache;
 	}
 	
 	/**
@@ -120,84 +288,357 @@ public class GitCodeHash {
 	 * @param gitDir is a .git directory.
 	 * @param target is a list of source files in the repo (.tsv files including SHA1, file name, and LANGUAGE).
 	 */
-	public void parseGitRepository(File gitDir, LineNumberReader target, PrintWriter w, HashType hashType) {
+	public void parseGitRepository(File gitDir, LineNumberReader target, final PrintWriter w, HashType hashType) {
+		parseGitRepository(gitDir, target, new HashRecordWriter() {
+			@Override
+			public void write(HashRecord record) {
+				w.println(toRow(record));
+			}
+		}, hashType);
+	}
+	
+	/**
+	 * @param gitDir is a .git directory.
+	 * @param target is a list of source files in the repo (.tsv files including SHA1, file name, and LANGUAGE).
+	 * @param w receives a record for each blob.
+	 */
+	public void parseGitRepository(File gitDir, LineNumberReader target, HashRecordWriter w, HashType hashType) {
 		FileRepositoryBuilder b = new FileRepositoryBuilder();
 		b.setGitDir(gitDir);
 		try (Repository repo = b.build()) {
-			try (ObjectReader r = repo.getObjectDatabase().newReader()) {
-
-				for (String line = target.readLine(); line != null; line = target.readLine()) {
-					int firstTabIndex = line.indexOf('\t');
-					int lastTabIndex = line.lastIndexOf('\t');
-					if (firstTabIndex < 0) continue; // Skip a bad format line
-
-					FileType t;
-					if (firstTabIndex == lastTabIndex) { // 2-columns format (blob-id,filename)
-						String filename = line.substring(firstTabIndex+1, line.length());
-						t = FileType.getFileTypeFromName(filename);
-					} else { // 3-column format (blob-id,filename,lang)
-						String filetype = line.substring(lastTabIndex+1, line.length());
-						t = FileType.getFileType(filetype);
+			Iterator<String> lines = packOrder ? sortByPackOffset(repo, target).iterator() : target.lines().iterator();
+			if (threads > 1) {
+				parseInParallel(repo, lines, w, hashType);
+			} else {
+				try (ObjectReader r = repo.getObjectDatabase().newReader()) {
+					while (lines.hasNext()) {
+						HashRecord record = computeRecord(r, lines.next(), hashType);
+						if (record != null) {
+							w.write(record);
+						}
 					}
-					
-					if (t != FileType.UNSUPPORTED) {
-						String sha1 = line.substring(0, firstTabIndex);
-						ObjectId id = ObjectId.fromString(sha1);
-						
-						try {
-							ObjectLoader l = r.open(id);
-							TokenReader tokenReader = FileType.createReader(t, l.openStream());
-							long size = l.getSize();
-
-							String codehash, minhash;
-							if (hashType == HashType.Murmur3MinHash) {
-								CodeHashTokenReader wrapper = new CodeHashTokenReader(tokenReader, size);
-								MurmurMinHash h = new MurmurMinHash(BBITMINHASH_BITCOUNT, BBITMINHASH_NGRAM_SIZE, wrapper);
-								minhash = HashStringUtil.bytesToHex(h.getHash());
-								codehash = HashStringUtil.bytesToHex(wrapper.getHash());
-							} else if (hashType == HashType.SHA1MinHash) {
-								CodeHashTokenReader wrapper = new CodeHashTokenReader(tokenReader, size);
-								SHA1MinHash h = new SHA1MinHash(BBITMINHASH_BITCOUNT, BBITMINHASH_NGRAM_SIZE, wrapper);
-								minhash = HashStringUtil.bytesToHex(h.getHash());
-								codehash = HashStringUtil.bytesToHex(wrapper.getHash());
-							} else if (hashType == HashType.SHA1MinHashInPaper) {
-								CodeHashTokenReader wrapper = new CodeHashTokenReader(tokenReader, size);
-								SHA1MinHashMSR2017 h = new SHA1MinHashMSR2017(BBITMINHASH_BITCOUNT, BBITMINHASH_NGRAM_SIZE, wrapper);
-								minhash = HashStringUtil.bytesToHex(h.getHash());
-								codehash = HashStringUtil.bytesToHex(wrapper.getHash());
-							} else {
-								CodeHash h = new CodeHash(tokenReader, size);
-								codehash = HashStringUtil.bytesToHex(h.getHash());
-								minhash = null;
-							}
-							
-							StringBuilder result = new StringBuilder(256);
-							result.append(sha1);
-							result.append("\t");
-							result.append(t.name());
-							result.append("\t");
-							result.append(codehash);
-							result.append("\t");
-							if (minhash != null) {
-								result.append(minhash);
-								result.append("\t");
-							}
-							result.append(size);
-							result.append("\t");
-							result.append(tokenReader.getTokenCount());
-							w.println(result.toString());
-
-						} catch (MissingObjectException e) {
-							// Ignore missing objects
-						} catch (IOException e) {
-							// Ignore 
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (UncheckedIOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Sort the lines of a blob list by the locations of the blobs, 
+	 * so that pack files are read almost sequentially and delta bases are reused from a cache.
+	 * Blobs are ordered by pack files (in the search order of JGit) and then offsets in a pack.
+	 * Loose objects, missing objects, and bad format lines are moved to the end in the original order.
+	 * If pack files are unavailable through the JGit internal API, the lines are returned in the original order.
+	 * @return the sorted lines.
+	 */
+	private List<String> sortByPackOffset(Repository repo, LineNumberReader target) throws IOException {
+		final List<String> lines = new ArrayList<>();
+		for (String line = target.readLine(); line != null; line = target.readLine()) {
+			lines.add(line);
+		}
+		
+		final int[] packNum = new int[lines.size()];
+		final long[] offset = new long[lines.size()];
+		try {
+			PackLocator.locate(repo, lines, packNum, offset);
+		} catch (IOException | RuntimeException | LinkageError e) {
+			System.err.println("Blobs are read in the list order, since pack files are unavailable: " + e);
+			return lines;
+		}
+		
+		Integer[] order = new Integer[lines.size()];
+		for (int i=0; i<lines.size(); i++) {
+			order[i] = i;
+		}
+		
+		// A stable sort keeps the list order for blobs outside packs
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				if (packNum[o1] != packNum[o2]) return Integer.compare(packNum[o1], packNum[o2]);
+				return Long.compare(offset[o1], offset[o2]);
+			}
+		});
+		List<String> sorted = new ArrayList<>(lines.size());
+		for (Integer i: order) {
+			sorted.add(lines.get(i));
+		}
+		return sorted;
+	}
+	
+	/**
+	 * Locate blobs in pack files.
+	 * This class depends on the non-API package org.eclipse.jgit.internal.storage.file of JGit 6.10.x,
+	 * which may change in any release.  The package is referenced only by this class, 
+	 * so that a linkage error is raised when this class is used rather than when GitCodeHash is loaded.
+	 */
+	private static class PackLocator {
+		
+		/**
+		 * @param lines is a blob list.
+		 * @param packNum receives the index of a pack file including a blob.
+		 * The number of pack files is stored for a blob outside packs.
+		 * @param offset receives the offset of a blob in the pack file.
+		 */
+		public static void locate(Repository repo, List<String> lines, int[] packNum, long[] offset) throws IOException {
+			List<PackIndex> indices = new ArrayList<>();
+			if (repo.getObjectDatabase() instanceof ObjectDirectory) {
+				Collection<Pack> packs = ((ObjectDirectory)repo.getObjectDatabase()).getPacks();
+				for (Pack p: packs) {
+					indices.add(p.getIndex());
+				}
+			}
+			
+			for (int i=0; i<lines.size(); i++) {
+				packNum[i] = indices.size();
+				String line = lines.get(i);
+				int firstTabIndex = line.indexOf('\t');
+				if (firstTabIndex < 0 || !ObjectId.isId(line.substring(0, firstTabIndex))) continue;
+				ObjectId id = ObjectId.fromString(line.substring(0, firstTabIndex));
+				for (int p=0; p<indices.size(); p++) {
+					long o = indices.get(p).findOffset(id);
+					if (o >= 0) {
+						packNum[i] = p;
+						offset[i] = o;
+						break;
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Read blob ids from a list and hash the blobs using a pool of workers.
+	 * Each worker has its own ObjectReader, since an ObjectReader is not thread-safe.
+	 * The number of blobs waiting to be written is bounded.
+	 */
+	private void parseInParallel(final Repository repo, Iterator<String> lines, final HashRecordWriter w, final HashType hashType) {
+		final List<ObjectReader> readers = Collections.synchronizedList(new ArrayList<ObjectReader>());
+		final ThreadLocal<ObjectReader> reader = new ThreadLocal<ObjectReader>() {
+			@Override
+			protected ObjectReader initialValue() {
+				ObjectReader r = repo.getObjectDatabase().newReader();
+				readers.add(r);
+				return r;
+			}
+		};
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			ArrayDeque<Future<HashRecord>> pending = new ArrayDeque<>();
+			while (lines.hasNext()) {
+				final String entry = lines.next();
+				pending.add(pool.submit(new Callable<HashRecord>() {
+					@Override
+					public HashRecord call() throws IOException {
+						HashRecord record = computeRecord(reader.get(), entry, hashType);
+						if (record != null && !ordered) {
+							w.write(record);
+							return null;
 						}
+						return record;
 					}
+				}));
+				if (pending.size() >= threads * TASKS_PER_THREAD) {
+					write(pending.removeFirst(), w);
 				}
 			}
+			while (!pending.isEmpty()) {
+				write(pending.removeFirst(), w);
+			}
+		} finally {
+			pool.shutdown();
+			try {
+				pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			for (ObjectReader r: readers) {
+				r.close();
+			}
+		}
+	}
+	
+	private void write(Future<HashRecord> result, HashRecordWriter w) {
+		try {
+			HashRecord record = result.get();
+			if (record != null) {
+				w.write(record);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			e.printStackTrace();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
+	
+	/**
+	 * Compute hash values for a blob.
+	 * @param r is a reader to load the blob.
+	 * @param line is a line of a blob list (blob-id, filename, and optionally lang).
+	 * @return a TSV row for the blob.
+	 * The method returns null if the line is not a supported file or the blob cannot be read.
+	 */
+	public String hashBlob(ObjectReader r, String line, HashType hashType) {
+		HashRecord record = computeRecord(r, line, hashType);
+		return record != null ? toRow(record) : null;
+	}
+	
+	/**
+	 * Compute hash values for a blob.
+	 * @param r is a reader to load the blob.
+	 * @param line is a line of a blob list (blob-id, filename, and optionally lang).
+	 * @return a record for the blob.  The file name in the line is recorded as its path. 
+	 * The method returns null if the line is not a supported file or the blob cannot be read.
+	 * If a cache is set, the blob is not read when the cache includes the blob.
+	 */
+	public HashRecord computeRecord(ObjectReader r, String line, HashType hashType) {
+		int firstTabIndex = line.indexOf('\t');
+		int lastTabIndex = line.lastIndexOf('\t');
+		if (firstTabIndex < 0) return null; // Skip a bad format line
+
+		FileType t;
+		String filename;
+		if (firstTabIndex == lastTabIndex) { // 2-columns format (blob-id,filename)
+			filename = line.substring(firstTabIndex+1, line.length());
+			t = FileType.getFileTypeFromName(filename);
+		} else { // 3-column format (blob-id,filename,lang)
+			filename = line.substring(firstTabIndex+1, lastTabIndex);
+			String filetype = line.substring(lastTabIndex+1, line.length());
+			t = FileType.getFileType(filetype);
+		}
+		if (t == FileType.UNSUPPORTED) return null;
+
+		String sha1 = line.substring(0, firstTabIndex);
+		ObjectId id = ObjectId.fromString(sha1);
+		
+		try {
+			if (cache != null) {
+				HashRecord cached = cache.get(filename, HashStringUtil.hexToBytes(sha1), t, hashType);
+				if (cached != null) return cached;
+			}
+			HashRecord record;
+			ObjectLoader l = r.open(id);
+			if (l.isLarge()) {
+				record = computeRecord(filename, sha1, t, l.openStream(), l.getSize(), hashType);
+			} else {
+				record = computeRecord(filename, sha1, t, l.getCachedBytes(), hashType);
+			}
+			if (cache != null) {
+				cache.put(record, hashType);
+			}
+			return record;
+		} catch (MissingObjectException e) {
+			// Ignore missing objects
+			return null;
+		} catch (IOException e) {
+			// Ignore 
+			return null;
+		}
+	}
+	
+	/**
+	 * Compute hash values for a blob content.
+	 * @param sha1 is the blob id.
+	 * @param t is the language of the content.
+	 * @param content is the content of the blob.
+	 * @param size is the byte length of the content.
+	 * @return a TSV row for the blob.
+	 */
+	public static String hashContent(String sha1, FileType t, InputStream content, long size, HashType hashType) throws IOException {
+		return toRow(computeRecord(null, sha1, t, content, size, hashType));
+	}
+	
+	/**
+	 * Compute hash values for a blob content on memory.
+	 * @param sha1 is the blob id.
+	 * @param t is the language of the content.
+	 * @param content is the content of the blob.  It must not be modified during the call.
+	 * @return a TSV row for the blob.
+	 */
+	public static String hashContent(String sha1, FileType t, byte[] content, HashType hashType) {
+		return toRow(computeRecord(null, sha1, t, content, hashType));
+	}
+	
+	/**
+	 * Compute hash values for a blob content.
+	 * @param path is a file name of the blob.  It may be null.
+	 * @param sha1 is the blob id.
+	 * @param t is the language of the content.
+	 * @param content is the content of the blob.
+	 * @param size is the byte length of the content.
+	 * @return a record for the blob.  Normalized minhash and the number of N-grams are not computed. 
+	 */
+	public static HashRecord computeRecord(String path, String sha1, FileType t, InputStream content, long size, HashType hashType) throws IOException {
+		return computeRecord(path, sha1, t, FileType.createReader(t, content), size, hashType);
+	}
+
+	/**
+	 * Compute hash values for a blob content on memory.
+	 * @param path is a file name of the blob.  It may be null.
+	 * @param sha1 is the blob id.
+	 * @param t is the language of the content.
+	 * @param content is the content of the blob.  It must not be modified during the call.
+	 * @return a record for the blob.  Normalized minhash and the number of N-grams are not computed. 
+	 */
+	public static HashRecord computeRecord(String path, String sha1, FileType t, byte[] content, HashType hashType) {
+		return computeRecord(path, sha1, t, FileType.createReader(t, content), content.length, hashType);
+	}
+
+	private static HashRecord computeRecord(String path, String sha1, FileType t, TokenReader tokenReader, long size, HashType hashType) {
+		byte[] codehash, minhash;
+		if (hashType == HashType.Murmur3MinHash) {
+			CodeHashTokenReader wrapper = new CodeHashTokenReader(tokenReader, size);
+			MurmurMinHash h = new MurmurMinHash(BBITMINHASH_BITCOUNT, BBITMINHASH_NGRAM_SIZE, wrapper);
+			minhash = h.getHash();
+			codehash = wrapper.getHash();
+		} else if (hashType == HashType.SHA1MinHash) {
+			CodeHashTokenReader wrapper = new CodeHashTokenReader(tokenReader, size);
+			SHA1MinHash h = new SHA1MinHash(BBITMINHASH_BITCOUNT, BBITMINHASH_NGRAM_SIZE, wrapper);
+			minhash = h.getHash();
+			codehash = wrapper.getHash();
+		} else if (hashType == HashType.SHA1MinHashInPaper) {
+			CodeHashTokenReader wrapper = new CodeHashTokenReader(tokenReader, size);
+			SHA1MinHashMSR2017 h = new SHA1MinHashMSR2017(BBITMINHASH_BITCOUNT, BBITMINHASH_NGRAM_SIZE, wrapper);
+			minhash = h.getHash();
+			codehash = wrapper.getHash();
+		} else if (hashType == HashType.OnePermutationMinHash) {
+			CodeHashTokenReader wrapper = new CodeHashTokenReader(tokenReader, size);
+			OnePermutationMinHash h = new OnePermutationMinHash(BBITMINHASH_BITCOUNT, BBITMINHASH_NGRAM_SIZE, wrapper);
+			minhash = h.getHash();
+			codehash = wrapper.getHash();
+		} else {
+			CodeHash h = new CodeHash(tokenReader, size);
+			codehash = h.getHash();
+			minhash = null;
+		}
+		
+		return new HashRecord(path, HashStringUtil.hexToBytes(sha1), t, codehash, minhash, null, size, tokenReader.getTokenCount(), -1);
+	}
+	
+	/**
+	 * @return a TSV row for a record.
+	 */
+	public static String toRow(HashRecord record) {
+		StringBuilder result = new StringBuilder(256);
+		result.append(HashStringUtil.bytesToHex(record.getSha1()));
+		result.append("\t");
+		result.append(record.getLang().name());
+		result.append("\t");
+		result.append(HashStringUtil.bytesToHex(record.getCodehash()));
+		result.append("\t");
+		if (record.getMinhash() != null) {
+			result.append(HashStringUtil.bytesToHex(record.getMinhash()));
+			result.append("\t");
+		}
+		result.append(record.getFileLength());
+		result.append("\t");
+		result.append(record.getTokenCount());
+		return result.toString();
+	}
 
 }
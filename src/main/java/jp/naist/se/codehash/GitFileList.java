@@ -11,6 +11,7 @@ import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.ObjectWalk;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -18,22 +19,36 @@ import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.treewalk.filter.TreeFilter;
 
+import jp.naist.se.codehash.GitCodeHash.HashType;
 
 /**
  * This is a main class to list all non-binary blobs in a specified git repository.
  * Command line parameter: A git repo directory.  The current directory is used by default
+ * If "-hash:TYPE" is specified, the class directly reports the output of GitCodeHash for the blobs 
+ * instead of a list of blobs.  TYPE is a hash type accepted by GitCodeHash (e.g. minhash).
  */
 public class GitFileList {
 	
 	private static final String target = "HEAD";
 
+	/**
+	 * An option to compute hash values for blobs, e.g. "-hash:minhash".
+	 */
+	public static final String ARG_HASH = "-hash:";
+
 	public static void main(String[] args) {
 		// Use the current directory by default
-		if (args.length == 0) {
-			args = new String[] {"."};
+		String dir = ".";
+		HashType hashType = null;
+		for (String arg: args) {
+			if (arg.startsWith(ARG_HASH)) {
+				hashType = GitCodeHash.parseHashType(arg.substring(ARG_HASH.length()));
+			} else {
+				dir = arg;
+			}
 		}
 		
-		File f = new File(args[0]);
+		File f = new File(dir);
 		try (Git git = Git.open(f)) {
 			Repository repo = git.getRepository();
 			try (ObjectWalk rev = new ObjectWalk(repo)) {
@@ -55,6 +70,13 @@ public class GitFileList {
 						walk.setFilter(filter);
 						while (walk.next()) {
 							AnyObjectId obj = walk.getObjectId(0);
+							if (hashType != null) {
+								String row = hash(rev.getObjectReader(), obj, new String(walk.getRawPath()), hashType);
+								if (row != null) {
+									System.out.println(row);
+								}
+								continue;
+							}
 							ObjectLoader loader = repo.getObjectDatabase().open(obj);
 							try (InputStream stream = loader.openStream()) {
 								boolean result = RawText.isBinary(stream);
@@ -73,6 +95,31 @@ public class GitFileList {
 		}
 	}
 	
+	/**
+	 * Compute hash values for a non-binary blob, loading the blob only once.
+	 * @return a row of GitCodeHash output.
+	 * The method returns null if the blob is binary or the file is not a supported source file.
+	 */
+	private static String hash(ObjectReader reader, AnyObjectId obj, String path, HashType hashType) throws IOException {
+		FileType t = FileType.getFileTypeFromName(path);
+		if (t == FileType.UNSUPPORTED) return null;
+
+		ObjectLoader loader = reader.open(obj);
+		if (loader.isLarge()) {
+			// A large blob is streamed twice rather than loaded on memory
+			try (InputStream stream = loader.openStream()) {
+				if (RawText.isBinary(stream)) return null;
+			}
+			try (InputStream stream = loader.openStream()) {
+				return GitCodeHash.hashContent(obj.getName(), t, stream, loader.getSize(), hashType);
+			}
+		} else {
+			byte[] content = loader.getCachedBytes();
+			if (RawText.isBinary(content, content.length, true)) return null;
+			return GitCodeHash.hashContent(obj.getName(), t, content, hashType);
+		}
+	}
+	
 	public static class SkipSameEntryFilter extends TreeFilter {
 
 		private HashSet<AnyObjectId> visited = new HashSet<>(65536);
@@ -0,0 +1,77 @@
+package jp.naist.se.codehash;
+
+/**
+ * Hash values of a source file (or a blob) computed by FileCodeHash and GitCodeHash.
+ */
+public class HashRecord {
+
+	private String path;
+	private byte[] sha1;
+	private FileType lang;
+	private byte[] codehash;
+	private byte[] minhash;
+	private byte[] normalizedMinhash;
+	private long fileLength;
+	private int tokenCount;
+	private int ngramCount;
+	
+	/**
+	 * @param path is a file path.  It may be null if unknown.
+	 * @param sha1 is SHA-1 hash of the file content (or a blob id).
+	 * @param lang is the language of the file.
+	 * @param codehash is a hash of tokens excluding whitespace and comments.
+	 * @param minhash is 1-bit minhash.  It is null if not computed. 
+	 * @param normalizedMinhash is 1-bit minhash with identifier normalization.  It is null if not computed. 
+	 * @param fileLength is the byte length of the file.
+	 * @param tokenCount is the number of tokens.
+	 * @param ngramCount is the number of N-grams.  It is -1 if not computed.
+	 */
+	public HashRecord(String path, byte[] sha1, FileType lang, byte[] codehash, byte[] minhash, byte[] normalizedMinhash, long fileLength, int tokenCount, int ngramCount) {
+		this.path = path;
+		this.sha1 = sha1;
+		this.lang = lang;
+		this.codehash = codehash;
+		this.minhash = minhash;
+		this.normalizedMinhash = normalizedMinhash;
+		this.fileLength = fileLength;
+		this.tokenCount = tokenCount;
+		this.ngramCount = ngramCount;
+	}
+	
+	public String getPath() {
+		return path;
+	}
+	
+	public byte[] getSha1() {
+		return sha1;
+	}
+	
+	public FileType getLang() {
+		return lang;
+	}
+	
+	public byte[] getCodehash() {
+		return codehash;
+	}
+	
+	public byte[] getMinhash() {
+		return minhash;
+	}
+	
+	public byte[] getNormalizedMinhash() {
+		return normalizedMinhash;
+	}
+	
+	public long getFileLength() {
+		return fileLength;
+	}
+	
+	public int getTokenCount() {
+		return tokenCount;
+	}
+	
+	public int getNgramCount() {
+		return ngramCount;
+	}
+
+}
@@ -0,0 +1,16 @@
+package jp.naist.se.codehash;
+
+import java.io.IOException;
+
+/**
+ * A destination of hash records.
+ */
+public interface HashRecordWriter {
+
+	/**
+	 * Write a record.  
+	 * This method may be called by multiple threads. 
+	 */
+	public void write(HashRecord record) throws IOException;
+	
+}
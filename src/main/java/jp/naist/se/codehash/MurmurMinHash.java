@@ -24,6 +24,18 @@ public class MurmurMinHash {
 		this.ngramMultiset = new NgramMultiset(new NgramReader(N, reader));
 	}
 	
+	/**
+	 * 1-bit minhash for N-grams already collected.
+	 * @param k the number of bits.  It should be a multiple of 8.  
+	 * @param ngramMultiset must include N-gram strings.
+	 */
+	public MurmurMinHash(int k, NgramMultiset ngramMultiset) {
+		if (k <= 0) throw new IllegalArgumentException("k must be a positive integer. " + k);
+
+		this.k = k;
+		this.ngramMultiset = ngramMultiset;
+	}
+	
 	private byte[] computeMinHash(int k, StringMultiset mset) {
 		// Initialize minhash
 		int[] hash = new int[k];
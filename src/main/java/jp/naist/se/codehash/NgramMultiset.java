@@ -1,5 +1,6 @@
 package jp.naist.se.codehash;
 
+import jp.naist.se.codehash.util.LongMultiset;
 import jp.naist.se.codehash.util.StringMultiset;
 
 public class NgramMultiset {
@@ -7,35 +8,66 @@ public class NgramMultiset {
 	private int ngramCount;
 	private StringMultiset regular;
 	private StringMultiset normalized;
+	private LongMultiset regularKeys;
+	private LongMultiset normalizedKeys;
 	
+	/**
+	 * Collect N-grams from a reader.
+	 * If the reader has a token dictionary, N-grams are stored as long keys 
+	 * (getRegularKeys() and getNormalizedKeys()) instead of strings 
+	 * (getRegular() and getNormalized() return null).
+	 * @param ngramReader
+	 */
 	public NgramMultiset(NgramReader ngramReader) {
-		regular = new StringMultiset(2048);
-		normalized = new StringMultiset(2048);
+		this(ngramReader, !ngramReader.hasDictionary());
+	}
+	
+	/**
+	 * Collect N-grams from a reader.
+	 * @param ngramReader
+	 * @param withStrings If true, N-gram strings are stored even if the reader has a token dictionary.
+	 * Both strings and keys are available in that case.
+	 */
+	public NgramMultiset(NgramReader ngramReader, boolean withStrings) {
+		if (ngramReader.hasDictionary()) {
+			regularKeys = new LongMultiset(2048);
+			normalizedKeys = new LongMultiset(2048);
+		}
+		if (withStrings || !ngramReader.hasDictionary()) {
+			regular = new StringMultiset(2048);
+			normalized = new StringMultiset(2048);
+		}
 		
 		while (ngramReader.next()) {
-			// Calculate a hash for the N-gram 
-			StringBuilder builder = new StringBuilder(128);
-			for (int i=0; i<ngramReader.getN(); i++) {
-				if (ngramReader.getToken(i) != null) {
-					builder.append(ngramReader.getToken(i));
-				} else {
-					builder.append((char)i);
-				}
-				builder.append((char)0);
+			if (regularKeys != null) {
+				regularKeys.add(ngramReader.getNgramKey());
+				normalizedKeys.add(ngramReader.getNormalizedNgramKey());
 			}
-			regular.add(builder.toString());
-
-			// Calculate a hash for the N-gram 
-			builder = new StringBuilder(128);
-			for (int i=0; i<ngramReader.getN(); i++) {
-				if (ngramReader.getNormalizedToken(i) != null) {
-					builder.append(ngramReader.getNormalizedToken(i));
-				} else {
-					builder.append((char)i);
+			if (regular != null) {
+				// Calculate a hash for the N-gram 
+				StringBuilder builder = new StringBuilder(128);
+				for (int i=0; i<ngramReader.getN(); i++) {
+					if (ngramReader.getToken(i) != null) {
+						builder.append(ngramReader.getToken(i));
+					} else {
+						builder.append((char)i);
+					}
+					builder.append((char)0);
 				}
-				builder.append((char)0);
+				regular.add(builder.toString());
+	
+				// Calculate a hash for the N-gram 
+				builder = new StringBuilder(128);
+				for (int i=0; i<ngramReader.getN(); i++) {
+					if (ngramReader.getNormalizedToken(i) != null) {
+						builder.append(ngramReader.getNormalizedToken(i));
+					} else {
+						builder.append((char)i);
+					}
+					builder.append((char)0);
+				}
+				normalized.add(builder.toString());
 			}
-			normalized.add(builder.toString());
 		}
 		
 		ngramCount = ngramReader.getNgramCount();
@@ -49,12 +81,24 @@ public class NgramMultiset {
 		return normalized;
 	}
 	
+	public LongMultiset getRegularKeys() {
+		return regularKeys;
+	}
+	
+	public LongMultiset getNormalizedKeys() {
+		return normalizedKeys;
+	}
+	
 	public int getNgramCount() {
 		return ngramCount;
 	}
 
 	public int getUniqueNgramCount() {
-		return regular.size();
+		if (regular != null) {
+			return regular.size();
+		} else {
+			return regularKeys.size();
+		}
 	}
 
 }
@@ -1,13 +1,26 @@
 package jp.naist.se.codehash;
 
+import jp.naist.se.codehash.util.TokenDictionary;
+
 
 public class NgramReader {
 
+	/**
+	 * The number of bits for a token ID in a packed N-gram key.
+	 */
+	private static final int BITS_PER_TOKEN = 21;
+	private static final int MAX_PACKED_TOKEN_ID = (1 << BITS_PER_TOKEN) - 1;
+	private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+
 	private int ngramCount;
 
 	private TokenReader reader;
 	private String[] tokens;
 	private String[] normalizedTokens;
+
+	private TokenDictionary dictionary;
+	private int[] tokenIds;
+	private int[] normalizedTokenIds;
 	
 	public NgramReader(int N, TokenReader reader) {
 		this.tokens = new String[N];
@@ -15,6 +28,27 @@ public class NgramReader {
 		this.reader = reader;
 	}
 	
+	/**
+	 * Create a reader that also translates tokens into IDs.
+	 * @param N
+	 * @param reader
+	 * @param dictionary assigns IDs to tokens.  
+	 * N-gram keys are comparable only if they are created using the same dictionary. 
+	 */
+	public NgramReader(int N, TokenReader reader, TokenDictionary dictionary) {
+		this(N, reader);
+		this.dictionary = dictionary;
+		this.tokenIds = new int[N];
+		this.normalizedTokenIds = new int[N];
+	}
+	
+	/**
+	 * @return true if the reader translates tokens into IDs. 
+	 */
+	public boolean hasDictionary() {
+		return dictionary != null;
+	}
+	
 	public int getN() {
 		return tokens.length;
 	}
@@ -32,6 +66,10 @@ public class NgramReader {
 			normalizedTokens[i] = normalizedTokens[i+1];
 			if (tokens[i] != null) hasElement = true;
 		}
+		if (dictionary != null) {
+			System.arraycopy(tokenIds, 1, tokenIds, 0, tokenIds.length-1);
+			System.arraycopy(normalizedTokenIds, 1, normalizedTokenIds, 0, normalizedTokenIds.length-1);
+		}
 			
 		// Read a next token
 		if (reader.next()) {
@@ -42,6 +80,10 @@ public class NgramReader {
 			tokens[tokens.length-1] = null;
 			normalizedTokens[normalizedTokens.length-1] = null;
 		}
+		if (dictionary != null) {
+			tokenIds[tokenIds.length-1] = dictionary.getId(tokens[tokens.length-1]);
+			normalizedTokenIds[normalizedTokenIds.length-1] = dictionary.getId(normalizedTokens[normalizedTokens.length-1]);
+		}
 		
 		if (hasElement) ngramCount++;
 
@@ -64,6 +106,44 @@ public class NgramReader {
 		return normalizedTokens[i];
 	}
 	
+	/**
+	 * This method is available only if the reader is created with a dictionary.
+	 * @return a key representing the current n-gram.  
+	 */
+	public long getNgramKey() {
+		return toKey(tokenIds);
+	}
+
+	/**
+	 * This method is available only if the reader is created with a dictionary.
+	 * @return a key representing the current normalized n-gram.  
+	 */
+	public long getNormalizedNgramKey() {
+		return toKey(normalizedTokenIds);
+	}
+	
+	/**
+	 * Translate token IDs into a key.
+	 * If N &lt;= 3 and all IDs are less than 2^21, the IDs are packed into a non-negative value without collision.
+	 * Otherwise, the IDs are mixed into a negative hash value.
+	 */
+	private static long toKey(int[] ids) {
+		if (ids.length * BITS_PER_TOKEN < Long.SIZE) {
+			long key = 0;
+			boolean packed = true;
+			for (int i=0; i<ids.length && packed; i++) {
+				key = (key << BITS_PER_TOKEN) | ids[i];
+				packed = ids[i] <= MAX_PACKED_TOKEN_ID;
+			}
+			if (packed) return key;
+		}
+		long h = 0;
+		for (int i=0; i<ids.length; i++) {
+			h = MurmurHash3.fmix64(h * GOLDEN_RATIO + ids[i]);
+		}
+		return h | Long.MIN_VALUE;
+	}
+	
 	/**
 	 * @return The number of n-grams returned by the reader.
 	 */
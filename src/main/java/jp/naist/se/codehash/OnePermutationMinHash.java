@@ -0,0 +1,201 @@
+package jp.naist.se.codehash;
+
+import java.util.Arrays;
+
+/**
+ * 1-bit minhash using one permutation hashing with optimal densification.
+ * Shrivastava: Optimal Densification for Fast and Accurate Minwise Hashing, In Proc. of ICML 2017.
+ *
+ * Each occurrence of an N-gram is hashed only once and assigned to one of k bins,
+ * while MurmurMinHash computes k hash values for each occurrence.
+ * An N-gram is represented by a 64-bit value combining hash values of its tokens,
+ * so that the N-gram text is never constructed.
+ * The result has the same format as MurmurMinHash (k bits),
+ * though the bit values are different from MurmurMinHash.
+ */
+public class OnePermutationMinHash {
+
+	private static final long EMPTY = Long.MAX_VALUE;
+	private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+	private static final int TOKEN_SEED1 = 0;
+	private static final int TOKEN_SEED2 = 0x5BD1E995;
+
+	private int k;
+	private int ngramCount;
+	private long[] regular;
+	private long[] normalized;
+	private int size;
+
+	/**
+	 * 1-bit minhash using k bins for N-gram Jaccard Index.
+	 * @param k the number of bits.  It should be a multiple of 8.
+	 * @param N
+	 * @param reader
+	 */
+	public OnePermutationMinHash(int k, int N, TokenReader reader) {
+		if (k <= 0) throw new IllegalArgumentException("k must be a positive integer. " + k);
+		this.k = k;
+
+		// Hash values of the last N tokens.  
+		// Missing tokens before the first token and after the last token are represented by small constants.
+		long[] tokens = new long[N];
+		long[] normalizedTokens = new long[N];
+		for (int i=0; i<N; i++) {
+			tokens[i] = normalizedTokens[i] = i;
+		}
+
+		regular = new long[1024];
+		normalized = new long[1024];
+		int remaining = N; // The number of n-grams to be read after EOF
+		boolean hasToken = false;
+		while (true) {
+			// Shift tokens
+			System.arraycopy(tokens, 1, tokens, 0, N-1);
+			System.arraycopy(normalizedTokens, 1, normalizedTokens, 0, N-1);
+			if (reader.next()) {
+				tokens[N-1] = hashToken(reader.getText());
+				normalizedTokens[N-1] = hashToken(reader.getNormalizedText());
+				hasToken = true;
+			} else {
+				remaining--;
+				if (!hasToken || remaining == 0) break;
+				tokens[N-1] = normalizedTokens[N-1] = N-1;
+			}
+
+			if (size == regular.length) {
+				regular = Arrays.copyOf(regular, size * 2);
+				normalized = Arrays.copyOf(normalized, size * 2);
+			}
+			regular[size] = hashNgram(tokens);
+			normalized[size] = hashNgram(normalizedTokens);
+			size++;
+		}
+		ngramCount = size;
+
+		// Sort N-grams to count the occurrences of each N-gram
+		Arrays.sort(regular, 0, size);
+		Arrays.sort(normalized, 0, size);
+	}
+
+	/**
+	 * @return a 64-bit hash value of a token.
+	 * Null (PHPLexer may return null) is regarded as an empty string.
+	 */
+	private static long hashToken(String token) {
+		if (token == null) token = "";
+		int h1 = MurmurHash3.murmurhash3_x86_32(token, 0, token.length(), TOKEN_SEED1);
+		int h2 = MurmurHash3.murmurhash3_x86_32(token, 0, token.length(), TOKEN_SEED2);
+		return ((long)h1 << 32) | (h2 & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @return a 64-bit hash value of an N-gram, depending on the order of tokens.
+	 */
+	private static long hashNgram(long[] tokens) {
+		long h = 0;
+		for (int i=0; i<tokens.length; i++) {
+			h = MurmurHash3.fmix64(h * GOLDEN_RATIO + tokens[i]);
+		}
+		return h;
+	}
+
+	/**
+	 * Compute 1-bit minhash for a multiset of N-grams.
+	 * @param k is the number of bits.
+	 * @param sortedKeys is a sorted array of N-gram hash values.
+	 * A value appears as many times as the N-gram occurs.
+	 * @param length is the number of elements in the array.
+	 * @param ignoreDuplication If true, the keys are regarded as an ordinary set.
+	 * @return a bit array.
+	 */
+	public static byte[] computeMinHash(int k, long[] sortedKeys, int length, boolean ignoreDuplication) {
+		long[] bins = new long[k];
+		Arrays.fill(bins, EMPTY);
+
+		int occurrence = 0;
+		for (int i=0; i<length; i++) {
+			if (i > 0 && sortedKeys[i] == sortedKeys[i-1]) {
+				if (ignoreDuplication) continue;
+				occurrence++;
+			} else {
+				occurrence = 0;
+			}
+			update(bins, sortedKeys[i], occurrence);
+		}
+		densify(bins);
+		return pack(bins);
+	}
+
+	/**
+	 * Assign an occurrence of an element to a bin.
+	 * The upper 32 bits of the hash select a bin, and the lower 32 bits are a value in the bin.
+	 */
+	private static void update(long[] bins, long key, int occurrence) {
+		long h = MurmurHash3.fmix64(key + occurrence * GOLDEN_RATIO);
+		int bin = (int)(((h >>> 32) * bins.length) >>> 32);
+		long value = h & 0xFFFFFFFFL;
+		if (value < bins[bin]) {
+			bins[bin] = value;
+		}
+	}
+
+	/**
+	 * Fill empty bins by values of non-empty bins selected by a hash of the empty bin index and attempts.
+	 * If all bins are empty, the bins are left as they are.
+	 */
+	private static void densify(long[] bins) {
+		boolean hasValue = false;
+		boolean hasEmpty = false;
+		for (int i=0; i<bins.length; i++) {
+			if (bins[i] == EMPTY) hasEmpty = true;
+			else hasValue = true;
+		}
+		if (!hasValue || !hasEmpty) return;
+
+		long[] original = bins.clone();
+		for (int i=0; i<bins.length; i++) {
+			if (original[i] == EMPTY) {
+				for (long attempt=1; ; attempt++) {
+					long h = MurmurHash3.fmix64(i * GOLDEN_RATIO + attempt);
+					int j = (int)(((h >>> 32) * bins.length) >>> 32);
+					if (original[j] != EMPTY) {
+						bins[i] = original[j];
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	private static byte[] pack(long[] bins) {
+		byte[] bitminhash = new byte[bins.length / 8];
+		for (int i=0; i<bins.length; i++) {
+			if ((bins[i] & 1) == 1) bitminhash[i / 8] |= (1 << (7 - i % 8));
+		}
+		return bitminhash;
+	}
+
+	/**
+	 * @return 1-bit minhash array.
+	 */
+	public byte[] getHash() {
+		return computeMinHash(k, regular, size, false);
+	}
+
+	public byte[] getNormalizedHash() {
+		return computeMinHash(k, normalized, size, false);
+	}
+
+	public byte[] getHashIgnoreDuplicatedElements() {
+		return computeMinHash(k, regular, size, true);
+	}
+
+	public byte[] getNormalizedHashIgnoreDuplicatedElements() {
+		return computeMinHash(k, normalized, size, true);
+	}
+
+	public int getNgramCount() {
+		return ngramCount;
+	}
+
+}
@@ -0,0 +1,112 @@
+package jp.naist.se.codehash;
+
+import java.util.Arrays;
+
+import jp.naist.se.codehash.util.TokenDictionary;
+
+/**
+ * A sequence of tokens recorded from a token reader.
+ * It enables to tokenize a file and to process the tokens later, e.g. in a different thread.
+ */
+public class TokenSequence {
+
+	private String[] texts;
+	private String[] normalizedTexts;
+	private int[] lines;
+	private int[] positions;
+	private int[] types;
+	private int size;
+
+	/**
+	 * Read all tokens from a reader.
+	 * @param reader is a token reader.  It reaches EOF after the call.
+	 */
+	public TokenSequence(TokenReader reader) {
+		texts = new String[1024];
+		normalizedTexts = new String[1024];
+		lines = new int[1024];
+		positions = new int[1024];
+		types = new int[1024];
+		while (reader.next()) {
+			if (size == texts.length) {
+				texts = Arrays.copyOf(texts, size * 2);
+				normalizedTexts = Arrays.copyOf(normalizedTexts, size * 2);
+				lines = Arrays.copyOf(lines, size * 2);
+				positions = Arrays.copyOf(positions, size * 2);
+				types = Arrays.copyOf(types, size * 2);
+			}
+			texts[size] = reader.getText();
+			normalizedTexts[size] = reader.getNormalizedText();
+			lines[size] = reader.getLine();
+			positions[size] = reader.getCharPositionInLine();
+			types[size] = reader.getTokenType();
+			size++;
+		}
+	}
+
+	/**
+	 * @return the number of tokens.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Register the tokens to a dictionary.
+	 * IDs are assigned in the same order as NgramReader reading the tokens,
+	 * so that the resultant IDs are the same as reading the tokens by NgramReader.
+	 * @param dictionary
+	 */
+	public void register(TokenDictionary dictionary) {
+		for (int i=0; i<size; i++) {
+			dictionary.getId(texts[i]);
+			dictionary.getId(normalizedTexts[i]);
+		}
+	}
+
+	/**
+	 * @return a new reader to read the recorded tokens from the beginning.
+	 */
+	public TokenReader getReader() {
+		return new TokenReader() {
+
+			private int current = -1;
+
+			@Override
+			public boolean next() {
+				if (current < size) current++;
+				return current < size;
+			}
+
+			@Override
+			public String getText() {
+				return current < size ? texts[current] : null;
+			}
+
+			@Override
+			public String getNormalizedText() {
+				return current < size ? normalizedTexts[current] : null;
+			}
+
+			@Override
+			public int getLine() {
+				return lines[current];
+			}
+
+			@Override
+			public int getCharPositionInLine() {
+				return positions[current];
+			}
+
+			@Override
+			public int getTokenCount() {
+				return Math.min(current + 1, size);
+			}
+
+			@Override
+			public int getTokenType() {
+				return types[current];
+			}
+		};
+	}
+}
@@ -0,0 +1,71 @@
+package jp.naist.se.codehash.binary;
+
+import java.nio.charset.StandardCharsets;
+
+import jp.naist.se.codehash.GitCodeHash;
+
+/**
+ * Constants of a binary file of hash records.
+ * All numbers are little-endian.
+ * 
+ * The file starts with a header:
+ * magic (8 bytes), version (int), record size (int), the number of records (long), 
+ * and the offset of a string table (long).
+ * 
+ * Fixed-width records follow the header:
+ * SHA-1 (20 bytes), codehash (20 bytes), minhash (256 bytes), normalized minhash (256 bytes),
+ * file length (long), token count (int), N-gram count (int), path offset (long), 
+ * language (FileType ordinal, 1 byte), flags (1 byte), padding (6 bytes), 
+ * and last modified time of the file in milliseconds (long, 0 if unknown).
+ * Version 1 records do not include the last modified time (RECORD_SIZE_V1).
+ * 
+ * The string table is placed after the records.  
+ * A path is stored as its byte length (int) followed by UTF-8 bytes.
+ * A path offset is relative to the beginning of the string table (-1 if a record has no path).
+ */
+public class BinaryHashFormat {
+
+	public static final byte[] MAGIC = "CODEHASH".getBytes(StandardCharsets.US_ASCII);
+	public static final int VERSION = 2;
+	public static final int VERSION_1 = 1;
+	
+	public static final int HASH_BYTES = 20;
+	public static final int MINHASH_BYTES = GitCodeHash.BBITMINHASH_BITCOUNT / 8;
+
+	public static final int HEADER_SIZE = 32;
+	public static final int HEADER_COUNT = 16;
+	public static final int HEADER_STRING_TABLE = 24;
+
+	public static final int SHA1 = 0;
+	public static final int CODEHASH = SHA1 + HASH_BYTES;
+	public static final int MINHASH = CODEHASH + HASH_BYTES;
+	public static final int NORMALIZED_MINHASH = MINHASH + MINHASH_BYTES;
+	public static final int FILE_LENGTH = NORMALIZED_MINHASH + MINHASH_BYTES;
+	public static final int TOKEN_COUNT = FILE_LENGTH + 8;
+	public static final int NGRAM_COUNT = TOKEN_COUNT + 4;
+	public static final int PATH = NGRAM_COUNT + 4;
+	public static final int LANG = PATH + 8;
+	public static final int FLAGS = LANG + 1;
+	public static final int RECORD_SIZE_V1 = FLAGS + 7;
+	public static final int LAST_MODIFIED = RECORD_SIZE_V1;
+	public static final int RECORD_SIZE = LAST_MODIFIED + 8;
+	
+	/**
+	 * A flag indicating that a record includes minhash.
+	 */
+	public static final int FLAG_MINHASH = 1;
+
+	/**
+	 * A flag indicating that a record includes normalized minhash.
+	 */
+	public static final int FLAG_NORMALIZED_MINHASH = 2;
+
+	/**
+	 * A flag indicating that minhash values ignore duplicated N-grams.
+	 */
+	public static final int FLAG_IGNORE_DUPLICATION = 4;
+
+	private BinaryHashFormat() {
+	}
+	
+}
@@ -0,0 +1,275 @@
+package jp.naist.se.codehash.binary;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import jp.naist.se.codehash.FileType;
+import jp.naist.se.codehash.HashRecord;
+
+/**
+ * Read hash records from a binary file (See BinaryHashFormat).
+ * Records are memory-mapped and accessed by their indices.  
+ * Since a mapped buffer is limited to 2GB, records are mapped in multiple chunks.
+ * Files of the previous version (without last modified time) are also accepted.
+ * The methods of this class can be called by multiple threads.
+ */
+public class BinaryHashReader implements AutoCloseable {
+
+	/**
+	 * The number of bytes read at once for a path in the string table.
+	 * Most paths are read by a single read operation.
+	 */
+	private static final int PATH_READ_SIZE = 256;
+
+	/**
+	 * The buffer size to read the string table sequentially.
+	 */
+	private static final int PATH_TABLE_BUFFER_SIZE = 64 * 1024;
+	
+	private FileChannel channel;
+	private int recordSize;
+	private int recordsPerChunk;
+	private long count;
+	private long stringTableOffset;
+	private MappedByteBuffer[] chunks;
+	
+	/**
+	 * @return true if the file starts with the magic number of the binary format. 
+	 */
+	public static boolean isBinaryHashFile(File f) {
+		try (InputStream in = new FileInputStream(f)) {
+			byte[] magic = new byte[BinaryHashFormat.MAGIC.length];
+			int n = 0;
+			while (n < magic.length) {
+				int r = in.read(magic, n, magic.length - n);
+				if (r < 0) return false;
+				n += r;
+			}
+			return Arrays.equals(magic, BinaryHashFormat.MAGIC);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+	
+	public BinaryHashReader(File f) throws IOException {
+		channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(BinaryHashFormat.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(header, 0);
+			byte[] magic = new byte[BinaryHashFormat.MAGIC.length];
+			header.get(magic);
+			if (!Arrays.equals(magic, BinaryHashFormat.MAGIC)) {
+				throw new IOException("Not a binary hash file: " + f.getAbsolutePath());
+			}
+			int version = header.getInt();
+			recordSize = header.getInt();
+			if (!(version == BinaryHashFormat.VERSION && recordSize == BinaryHashFormat.RECORD_SIZE) &&
+				!(version == BinaryHashFormat.VERSION_1 && recordSize == BinaryHashFormat.RECORD_SIZE_V1)) {
+				throw new IOException("Unsupported binary hash file version " + version + ": " + f.getAbsolutePath());
+			}
+			recordsPerChunk = Integer.MAX_VALUE / recordSize;
+			count = header.getLong(BinaryHashFormat.HEADER_COUNT);
+			stringTableOffset = header.getLong(BinaryHashFormat.HEADER_STRING_TABLE);
+			
+			chunks = new MappedByteBuffer[(int)((count + recordsPerChunk - 1) / recordsPerChunk)];
+			for (int i=0; i<chunks.length; i++) {
+				long first = (long)i * recordsPerChunk;
+				long records = Math.min(recordsPerChunk, count - first);
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, BinaryHashFormat.HEADER_SIZE + first * recordSize, records * recordSize);
+				chunks[i].order(ByteOrder.LITTLE_ENDIAN);
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	private void readFully(ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining()) {
+			int n = channel.read(buf, position);
+			if (n < 0) throw new IOException("Unexpected end of file");
+			position += n;
+		}
+		buf.flip();
+	}
+
+	/**
+	 * @return the number of records.
+	 */
+	public long getCount() {
+		return count;
+	}
+	
+	private ByteBuffer chunk(long index) {
+		return chunks[(int)(index / recordsPerChunk)];
+	}
+	
+	private int offset(long index, int field) {
+		return (int)(index % recordsPerChunk) * recordSize + field;
+	}
+	
+	private byte[] getBytes(long index, int field, int length) {
+		byte[] result = new byte[length];
+		ByteBuffer b = chunk(index).duplicate();
+		b.position(offset(index, field));
+		b.get(result);
+		return result;
+	}
+	
+	public int getFlags(long index) {
+		return chunk(index).get(offset(index, BinaryHashFormat.FLAGS));
+	}
+
+	public FileType getLang(long index) {
+		return FileType.values()[chunk(index).get(offset(index, BinaryHashFormat.LANG))];
+	}
+	
+	public long getFileLength(long index) {
+		return chunk(index).getLong(offset(index, BinaryHashFormat.FILE_LENGTH));
+	}
+	
+	public int getTokenCount(long index) {
+		return chunk(index).getInt(offset(index, BinaryHashFormat.TOKEN_COUNT));
+	}
+	
+	public int getNgramCount(long index) {
+		return chunk(index).getInt(offset(index, BinaryHashFormat.NGRAM_COUNT));
+	}
+	
+	/**
+	 * @return the last modified time of the file in milliseconds.  0 if unknown.
+	 */
+	public long getLastModified(long index) {
+		if (recordSize < BinaryHashFormat.RECORD_SIZE) return 0;
+		return chunk(index).getLong(offset(index, BinaryHashFormat.LAST_MODIFIED));
+	}
+	
+	public byte[] getSha1(long index) {
+		return getBytes(index, BinaryHashFormat.SHA1, BinaryHashFormat.HASH_BYTES);
+	}
+	
+	public byte[] getCodehash(long index) {
+		return getBytes(index, BinaryHashFormat.CODEHASH, BinaryHashFormat.HASH_BYTES);
+	}
+	
+	/**
+	 * @return minhash of the record.  Null if the record does not include it.
+	 */
+	public byte[] getMinhash(long index) {
+		if ((getFlags(index) & BinaryHashFormat.FLAG_MINHASH) == 0) return null;
+		return getBytes(index, BinaryHashFormat.MINHASH, BinaryHashFormat.MINHASH_BYTES);
+	}
+	
+	/**
+	 * @return normalized minhash of the record.  Null if the record does not include it.
+	 */
+	public byte[] getNormalizedMinhash(long index) {
+		if ((getFlags(index) & BinaryHashFormat.FLAG_NORMALIZED_MINHASH) == 0) return null;
+		return getBytes(index, BinaryHashFormat.NORMALIZED_MINHASH, BinaryHashFormat.MINHASH_BYTES);
+	}
+	
+	/**
+	 * @return the path of the record.  Null if the record does not include it.
+	 */
+	public String getPath(long index) throws IOException {
+		long pathOffset = chunk(index).getLong(offset(index, BinaryHashFormat.PATH));
+		if (pathOffset < 0) return null;
+		long position = stringTableOffset + pathOffset;
+		ByteBuffer buf = ByteBuffer.allocate(4 + PATH_READ_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		while (buf.hasRemaining()) {
+			int n = channel.read(buf, position + buf.position());
+			if (n < 0) break;
+		}
+		buf.flip();
+		if (buf.remaining() < 4) throw new IOException("Unexpected end of file");
+		int length = buf.getInt();
+		if (length <= buf.remaining()) {
+			return new String(buf.array(), 4, length, StandardCharsets.UTF_8);
+		}
+		ByteBuffer path = ByteBuffer.allocate(length);
+		readFully(path, position + 4);
+		return new String(path.array(), StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Read the paths of all records in the order of records.
+	 * The string table is read sequentially, instead of a read operation for each path.
+	 * @param visitor receives the index and the path of each record including a path.
+	 */
+	public void readPaths(PathVisitor visitor) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(PATH_TABLE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		buf.flip();
+		long nextPathOffset = 0;
+		for (long i=0; i<count; i++) {
+			long pathOffset = chunk(i).getLong(offset(i, BinaryHashFormat.PATH));
+			if (pathOffset < 0) continue;
+			if (pathOffset != nextPathOffset) {
+				// The string table is not written in the order of records
+				visitor.visit(i, getPath(i));
+				continue;
+			}
+			// buf starts with the path; the remaining bytes are followed by the position to be loaded
+			long start = stringTableOffset + nextPathOffset;
+			buf = fill(buf, start + buf.remaining(), 4);
+			int length = buf.getInt();
+			if (length < 0) throw new IOException("Invalid path length: " + length);
+			buf = fill(buf, start + 4 + buf.remaining(), length);
+			visitor.visit(i, new String(buf.array(), buf.position(), length, StandardCharsets.UTF_8));
+			buf.position(buf.position() + length);
+			nextPathOffset += 4 + length;
+		}
+	}
+
+	/**
+	 * Load bytes from a file position to the end of a buffer.
+	 * @param position is the file position of the byte following the remaining bytes of the buffer.
+	 * @return a buffer including at least the specified number of remaining bytes.
+	 * The buffer may be a new one if the length exceeds the capacity.
+	 */
+	private ByteBuffer fill(ByteBuffer buf, long position, int length) throws IOException {
+		if (buf.remaining() >= length) return buf;
+		int loaded = buf.remaining();
+		ByteBuffer b = buf;
+		if (length > buf.capacity()) {
+			b = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+			b.put(buf);
+		} else {
+			b.compact();
+		}
+		while (b.position() < length) {
+			int n = channel.read(b, position + b.position() - loaded);
+			if (n < 0) throw new IOException("Unexpected end of file");
+		}
+		b.flip();
+		return b;
+	}
+
+	public HashRecord getRecord(long index) throws IOException {
+		return new HashRecord(getPath(index), getSha1(index), getLang(index), getCodehash(index), 
+				getMinhash(index), getNormalizedMinhash(index), 
+				getFileLength(index), getTokenCount(index), getNgramCount(index));
+	}
+
+	/**
+	 * A callback for readPaths.
+	 */
+	public static interface PathVisitor {
+		public void visit(long index, String path) throws IOException;
+	}
+
+	@Override
+	public void close() throws IOException {
+		chunks = null;
+		channel.close();
+	}
+	
+}
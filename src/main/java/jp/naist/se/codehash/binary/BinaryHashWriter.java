@@ -0,0 +1,132 @@
+package jp.naist.se.codehash.binary;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import jp.naist.se.codehash.HashRecord;
+import jp.naist.se.codehash.HashRecordWriter;
+
+/**
+ * Write hash records into a binary file (See BinaryHashFormat).
+ * Paths are stored in a temporary file until the writer is closed, 
+ * so that the writer does not keep them on memory.
+ */
+public class BinaryHashWriter implements HashRecordWriter, AutoCloseable {
+
+	private File file;
+	private OutputStream records;
+	private File stringFile;
+	private OutputStream strings;
+	private ByteBuffer buffer;
+	private long count;
+	private long stringTableSize;
+	
+	public BinaryHashWriter(File file) throws IOException {
+		this.file = file;
+		this.records = new BufferedOutputStream(new FileOutputStream(file), 1 << 20);
+		this.stringFile = File.createTempFile("codehash", ".strings");
+		this.strings = new BufferedOutputStream(new FileOutputStream(stringFile), 1 << 16);
+		this.buffer = ByteBuffer.allocate(BinaryHashFormat.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+		// The number of records and the string table offset are filled when closed 
+		ByteBuffer header = ByteBuffer.allocate(BinaryHashFormat.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.put(BinaryHashFormat.MAGIC);
+		header.putInt(BinaryHashFormat.VERSION);
+		header.putInt(BinaryHashFormat.RECORD_SIZE);
+		records.write(header.array());
+	}
+	
+	@Override
+	public void write(HashRecord record) throws IOException {
+		write(record, 0, 0);
+	}
+	
+	/**
+	 * @param extraFlags specifies flags other than FLAG_MINHASH and FLAG_NORMALIZED_MINHASH, e.g. FLAG_IGNORE_DUPLICATION.
+	 * @param lastModified is the last modified time of the file in milliseconds.  0 if unknown. 
+	 */
+	public synchronized void write(HashRecord record, int extraFlags, long lastModified) throws IOException {
+		int flags = extraFlags;
+		buffer.clear();
+		Arrays.fill(buffer.array(), (byte)0);
+		put(BinaryHashFormat.SHA1, record.getSha1(), BinaryHashFormat.HASH_BYTES);
+		put(BinaryHashFormat.CODEHASH, record.getCodehash(), BinaryHashFormat.HASH_BYTES);
+		if (record.getMinhash() != null) {
+			put(BinaryHashFormat.MINHASH, record.getMinhash(), BinaryHashFormat.MINHASH_BYTES);
+			flags |= BinaryHashFormat.FLAG_MINHASH;
+		}
+		if (record.getNormalizedMinhash() != null) {
+			put(BinaryHashFormat.NORMALIZED_MINHASH, record.getNormalizedMinhash(), BinaryHashFormat.MINHASH_BYTES);
+			flags |= BinaryHashFormat.FLAG_NORMALIZED_MINHASH;
+		}
+		buffer.putLong(BinaryHashFormat.FILE_LENGTH, record.getFileLength());
+		buffer.putInt(BinaryHashFormat.TOKEN_COUNT, record.getTokenCount());
+		buffer.putInt(BinaryHashFormat.NGRAM_COUNT, record.getNgramCount());
+		if (record.getPath() != null) {
+			byte[] path = record.getPath().getBytes(StandardCharsets.UTF_8);
+			buffer.putLong(BinaryHashFormat.PATH, stringTableSize);
+			ByteBuffer length = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			length.putInt(path.length);
+			strings.write(length.array());
+			strings.write(path);
+			stringTableSize += 4 + path.length;
+		} else {
+			buffer.putLong(BinaryHashFormat.PATH, -1);
+		}
+		buffer.put(BinaryHashFormat.LANG, (byte)record.getLang().ordinal());
+		buffer.put(BinaryHashFormat.FLAGS, (byte)flags);
+		buffer.putLong(BinaryHashFormat.LAST_MODIFIED, lastModified);
+		records.write(buffer.array());
+		count++;
+	}
+	
+	private void put(int offset, byte[] value, int length) {
+		if (value.length != length) throw new IllegalArgumentException("Unexpected length: " + value.length + " (expected: " + length + ")");
+		System.arraycopy(value, 0, buffer.array(), offset, length);
+	}
+	
+	/**
+	 * Append the string table and fill the header.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (records == null) return;
+		try {
+			strings.close();
+			try (InputStream in = new BufferedInputStream(new FileInputStream(stringFile), 1 << 16)) {
+				byte[] buf = new byte[1 << 16];
+				for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+					records.write(buf, 0, n);
+				}
+			}
+			records.close();
+			records = null;
+			
+			try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+				ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+				header.putLong(count);
+				header.putLong(BinaryHashFormat.HEADER_SIZE + count * BinaryHashFormat.RECORD_SIZE);
+				f.seek(BinaryHashFormat.HEADER_COUNT);
+				f.write(header.array());
+			}
+		} finally {
+			if (records != null) {
+				records.close();
+				records = null;
+			}
+			stringFile.delete();
+		}
+	}
+
+}
@@ -0,0 +1,324 @@
+package jp.naist.se.codehash.binary;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import jp.naist.se.codehash.FileType;
+import jp.naist.se.codehash.GitCodeHash;
+import jp.naist.se.codehash.GitCodeHash.HashType;
+import jp.naist.se.codehash.HashRecord;
+import jp.naist.se.codehash.MurmurHash3;
+
+/**
+ * A persistent cache of hash values keyed by blob contents.
+ * Since a blob id is a hash of the content, the cache can be shared among repositories, e.g. forks.
+ * A key comprises a blob id, a language, a hash type, N of N-grams, and the number of minhash bits.
+ *
+ * The file is a header (magic and version) followed by entries appended by put().
+ * An entry is its byte length (int) followed by the key: blob id (20 bytes), language name (16 bytes),
+ * hash type name (24 bytes), N (short), and the number of minhash bits (int);
+ * and the value: codehash (20 bytes), file length (long), token count (int),
+ * minhash length (int), and minhash bytes.  All numbers are little-endian.
+ * Names are US-ASCII padded with zeros, so that keys do not depend on the order of enum constants.
+ *
+ * A process holds an exclusive lock of the file while the cache is open.
+ * Another process cannot open the same file until the cache is closed.
+ * Only hash values of keys and locations of entries are kept on memory.
+ * The methods of this class can be called by multiple threads.
+ */
+public class BlobHashCache implements AutoCloseable {
+
+	public static final byte[] MAGIC = "CODEHASHBLOB".getBytes(StandardCharsets.US_ASCII);
+	public static final int VERSION = 2;
+	public static final int HEADER_SIZE = MAGIC.length + 4;
+
+	private static final int LANG_NAME_SIZE = 16;
+	private static final int HASH_TYPE_NAME_SIZE = 24;
+	private static final int KEY_SIZE = BinaryHashFormat.HASH_BYTES + LANG_NAME_SIZE + HASH_TYPE_NAME_SIZE + 2 + 4;
+	private static final int CODEHASH = KEY_SIZE;
+	private static final int FILE_LENGTH = CODEHASH + BinaryHashFormat.HASH_BYTES;
+	private static final int TOKEN_COUNT = FILE_LENGTH + 8;
+	private static final int MINHASH_LENGTH = TOKEN_COUNT + 4;
+	private static final int MINHASH = MINHASH_LENGTH + 4;
+
+	/**
+	 * The maximum byte length of an entry.  A larger value indicates a broken entry.
+	 */
+	private static final int MAX_ENTRY_SIZE = MINHASH + (1 << 20);
+
+	private static final int INITIAL_CAPACITY = 1 << 16;
+
+	private File file;
+	private FileChannel channel;
+	private long fileSize;
+
+	// An open-addressing hash table.  An empty slot has a zero length.
+	private long[] keyHashes;
+	private long[] offsets;
+	private int[] lengths;
+	private int size;
+
+	/**
+	 * Open a cache file.  A new file is created if it does not exist.
+	 * A broken entry at the end of the file (e.g. written by an interrupted process) is discarded.
+	 */
+	public BlobHashCache(File file) throws IOException {
+		this.file = file;
+		this.keyHashes = new long[INITIAL_CAPACITY];
+		this.offsets = new long[INITIAL_CAPACITY];
+		this.lengths = new int[INITIAL_CAPACITY];
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+		try {
+			// The lock is released when the channel is closed
+			FileLock lock;
+			try {
+				lock = channel.tryLock();
+			} catch (OverlappingFileLockException e) {
+				lock = null;
+			}
+			if (lock == null) {
+				throw new IOException("The cache is used by another process: " + file.getAbsolutePath());
+			}
+			if (channel.size() == 0) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+				header.put(MAGIC);
+				header.putInt(VERSION);
+				header.flip();
+				writeFully(header, 0);
+				fileSize = HEADER_SIZE;
+			} else {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+				if (!readFully(header, 0)) {
+					throw new IOException("Not a blob hash cache: " + file.getAbsolutePath());
+				}
+				byte[] magic = new byte[MAGIC.length];
+				header.get(magic);
+				if (!Arrays.equals(magic, MAGIC)) {
+					throw new IOException("Not a blob hash cache: " + file.getAbsolutePath());
+				}
+				int version = header.getInt();
+				if (version != VERSION) {
+					throw new IOException("Unsupported blob hash cache version " + version + ": " + file.getAbsolutePath());
+				}
+				load();
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Read all entries to build the hash table.
+	 */
+	private void load() throws IOException {
+		long position = HEADER_SIZE;
+		ByteBuffer length = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer key = ByteBuffer.allocate(KEY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		long end = channel.size();
+		while (position + 4 <= end) {
+			length.clear();
+			readFully(length, position);
+			int entrySize = length.getInt();
+			if (entrySize < MINHASH || entrySize > MAX_ENTRY_SIZE || position + 4 + entrySize > end) break;
+			key.clear();
+			readFully(key, position + 4);
+			add(hash(key.array()), position + 4, entrySize);
+			position += 4 + entrySize;
+		}
+		if (position < end) {
+			System.err.println("Discarded a broken entry at " + position + " in " + file.getAbsolutePath());
+			channel.truncate(position);
+		}
+		fileSize = position;
+	}
+
+	/**
+	 * @return true if the buffer is filled.  False if the end of file is reached.
+	 */
+	private boolean readFully(ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining()) {
+			int n = channel.read(buf, position + buf.position());
+			if (n < 0) return false;
+		}
+		buf.flip();
+		return true;
+	}
+
+	private void writeFully(ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining()) {
+			channel.write(buf, position + buf.position());
+		}
+	}
+
+	private static byte[] key(byte[] blobId, FileType t, HashType hashType) {
+		ByteBuffer key = ByteBuffer.allocate(KEY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		key.put(blobId, 0, BinaryHashFormat.HASH_BYTES);
+		putName(key, t.name(), LANG_NAME_SIZE);
+		putName(key, hashType.name(), HASH_TYPE_NAME_SIZE);
+		key.putShort((short)GitCodeHash.BBITMINHASH_NGRAM_SIZE);
+		key.putInt(GitCodeHash.BBITMINHASH_BITCOUNT);
+		return key.array();
+	}
+
+	/**
+	 * Write a name into a fixed-length field.
+	 */
+	private static void putName(ByteBuffer key, String name, int size) {
+		byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+		if (bytes.length > size) throw new IllegalArgumentException("Too long name for a cache key: " + name);
+		key.put(bytes);
+		key.put(new byte[size - bytes.length]);
+	}
+
+	private static long hash(byte[] key) {
+		long h = 0;
+		for (int i=0; i<KEY_SIZE; i++) {
+			h = h * 31 + (key[i] & 0xFF);
+		}
+		return MurmurHash3.fmix64(h);
+	}
+
+	private int slot(long keyHash) {
+		return (int)(keyHash & (keyHashes.length - 1));
+	}
+
+	/**
+	 * Add an entry to the hash table.
+	 */
+	private void add(long keyHash, long offset, int length) {
+		if ((size + 1) * 2 > keyHashes.length) {
+			long[] oldHashes = keyHashes;
+			long[] oldOffsets = offsets;
+			int[] oldLengths = lengths;
+			keyHashes = new long[oldHashes.length * 2];
+			offsets = new long[oldHashes.length * 2];
+			lengths = new int[oldHashes.length * 2];
+			size = 0;
+			for (int i=0; i<oldHashes.length; i++) {
+				if (oldLengths[i] > 0) {
+					add(oldHashes[i], oldOffsets[i], oldLengths[i]);
+				}
+			}
+		}
+		int i = slot(keyHash);
+		while (lengths[i] > 0) {
+			i = (i + 1) & (keyHashes.length - 1);
+		}
+		keyHashes[i] = keyHash;
+		offsets[i] = offset;
+		lengths[i] = length;
+		size++;
+	}
+
+	/**
+	 * @return an entry for the key.  Null if not found.
+	 */
+	private ByteBuffer find(byte[] key) throws IOException {
+		long keyHash = hash(key);
+		long[] candidates;
+		int[] candidateLengths;
+		synchronized (this) {
+			int count = 0;
+			for (int i = slot(keyHash); lengths[i] > 0; i = (i + 1) & (keyHashes.length - 1)) {
+				if (keyHashes[i] == keyHash) count++;
+			}
+			candidates = new long[count];
+			candidateLengths = new int[count];
+			count = 0;
+			for (int i = slot(keyHash); lengths[i] > 0; i = (i + 1) & (keyHashes.length - 1)) {
+				if (keyHashes[i] == keyHash) {
+					candidates[count] = offsets[i];
+					candidateLengths[count] = lengths[i];
+					count++;
+				}
+			}
+		}
+		for (int c=0; c<candidates.length; c++) {
+			ByteBuffer entry = ByteBuffer.allocate(candidateLengths[c]).order(ByteOrder.LITTLE_ENDIAN);
+			if (readFully(entry, candidates[c]) &&
+				Arrays.equals(Arrays.copyOf(entry.array(), KEY_SIZE), key)) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param path is recorded in the resultant record.
+	 * @param blobId is a blob id (20 bytes).
+	 * @param t is the language of the blob.
+	 * @return a cached record for the blob.  Null if not found.
+	 */
+	public HashRecord get(String path, byte[] blobId, FileType t, HashType hashType) throws IOException {
+		ByteBuffer entry = find(key(blobId, t, hashType));
+		if (entry == null) return null;
+		byte[] codehash = new byte[BinaryHashFormat.HASH_BYTES];
+		entry.position(CODEHASH);
+		entry.get(codehash);
+		long fileLength = entry.getLong(FILE_LENGTH);
+		int tokenCount = entry.getInt(TOKEN_COUNT);
+		int minhashLength = entry.getInt(MINHASH_LENGTH);
+		byte[] minhash = null;
+		if (minhashLength >= 0) {
+			minhash = new byte[minhashLength];
+			entry.position(MINHASH);
+			entry.get(minhash);
+		}
+		return new HashRecord(path, blobId, t, codehash, minhash, null, fileLength, tokenCount, -1);
+	}
+
+	/**
+	 * Append a record computed by GitCodeHash.  Nothing happens if the cache already includes the key.
+	 * @param record includes a blob id as SHA-1.
+	 */
+	public void put(HashRecord record, HashType hashType) throws IOException {
+		byte[] key = key(record.getSha1(), record.getLang(), hashType);
+		if (find(key) != null) return;
+		byte[] minhash = record.getMinhash();
+		int entrySize = MINHASH + (minhash != null ? minhash.length : 0);
+		ByteBuffer buf = ByteBuffer.allocate(4 + entrySize).order(ByteOrder.LITTLE_ENDIAN);
+		buf.putInt(entrySize);
+		buf.put(key);
+		buf.put(record.getCodehash(), 0, BinaryHashFormat.HASH_BYTES);
+		buf.putLong(record.getFileLength());
+		buf.putInt(record.getTokenCount());
+		if (minhash != null) {
+			buf.putInt(minhash.length);
+			buf.put(minhash);
+		} else {
+			buf.putInt(-1);
+		}
+		buf.flip();
+		synchronized (this) {
+			if (channel == null) return;
+			writeFully(buf, fileSize);
+			add(hash(key), fileSize + 4, entrySize);
+			fileSize += 4 + entrySize;
+		}
+	}
+
+	/**
+	 * @return the number of entries.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+
+}
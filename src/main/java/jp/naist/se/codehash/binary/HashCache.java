@@ -0,0 +1,182 @@
+package jp.naist.se.codehash.binary;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import jp.naist.se.codehash.HashRecord;
+import jp.naist.se.codehash.MurmurHash3;
+
+/**
+ * A persistent cache of hash records keyed by file paths.
+ * The cache is a binary hash file (See BinaryHashFormat) written by the previous run.
+ * Records are memory-mapped; only hash values of the paths and record indices are kept on memory.
+ *
+ * Records are added to a new file during a run, and the new file replaces the cache when closed.
+ * Hence, the cache includes only files processed in the latest run.
+ * The methods of this class can be called by multiple threads.
+ */
+public class HashCache implements AutoCloseable {
+
+	private static final int PATH_HASH_SEED = 0x3c074a61;
+	private static final long INDEX_MASK = 0xFFFFFFFFL;
+
+	private File file;
+	private File newFile;
+	private BinaryHashReader previous;
+	private long[] keys;
+	private BinaryHashWriter writer;
+
+	/**
+	 * Open a cache file.
+	 * If the file does not exist or is not a valid binary hash file, the cache starts from empty.
+	 * @param file is the cache file.
+	 */
+	public HashCache(File file) throws IOException {
+		this.file = file;
+		this.keys = new long[0];
+		if (file.exists()) {
+			try {
+				previous = new BinaryHashReader(file);
+				buildIndex();
+			} catch (IOException e) {
+				System.err.println("Ignored an invalid cache file " + file.getAbsolutePath() + ": " + e.getMessage());
+				close(previous);
+				previous = null;
+			}
+		}
+		File dir = file.getAbsoluteFile().getParentFile();
+		newFile = File.createTempFile("codehash", ".cache", dir);
+		try {
+			writer = new BinaryHashWriter(newFile);
+		} catch (IOException e) {
+			close(previous);
+			newFile.delete();
+			throw e;
+		}
+	}
+
+	/**
+	 * Create a sorted array of keys.
+	 * A key packs a 32-bit hash value of a path and a record index into a long value.
+	 */
+	private void buildIndex() throws IOException {
+		if (previous.getCount() > Integer.MAX_VALUE) {
+			throw new IOException("Too many records: " + previous.getCount());
+		}
+		final long[] entries = new long[(int)previous.getCount()];
+		final int[] size = new int[1];
+		previous.readPaths(new BinaryHashReader.PathVisitor() {
+			@Override
+			public void visit(long index, String path) {
+				entries[size[0]++] = ((long)hash(path) << 32) | index;
+			}
+		});
+		keys = Arrays.copyOf(entries, size[0]);
+		Arrays.sort(keys);
+	}
+
+	private static int hash(String path) {
+		byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+		return MurmurHash3.murmurhash3_x86_32(bytes, 0, bytes.length, PATH_HASH_SEED);
+	}
+
+	/**
+	 * @return the index of a record for the path in the previous file.  -1 if not found.
+	 */
+	private long find(String path) throws IOException {
+		if (keys.length == 0) return -1;
+		long h = (long)hash(path) << 32;
+		int pos = Arrays.binarySearch(keys, h);
+		if (pos < 0) pos = -pos - 1;
+		for (int i=pos; i<keys.length && (keys[i] & ~INDEX_MASK) == h; i++) {
+			long index = keys[i] & INDEX_MASK;
+			if (path.equals(previous.getPath(index))) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Find a record for an unchanged file using only file attributes.
+	 * @param path is the path of a file.
+	 * @param fileLength is the current size of the file.
+	 * @param lastModified is the current last modified time of the file.
+	 * @param flags specifies the extra flags of the record, e.g. FLAG_IGNORE_DUPLICATION.
+	 * @return a cached record if the file has the same size and last modified time.  Null otherwise.
+	 */
+	public HashRecord get(String path, long fileLength, long lastModified, int flags) throws IOException {
+		long index = find(path);
+		if (index >= 0 && lastModified != 0 &&
+			previous.getLastModified(index) == lastModified &&
+			previous.getFileLength(index) == fileLength &&
+			hasFlags(index, flags)) {
+			return previous.getRecord(index);
+		}
+		return null;
+	}
+
+	/**
+	 * Find a record for a file using its content hash.
+	 * @param path is the path of a file.
+	 * @param sha1 is the SHA-1 hash of the current file content.
+	 * @param flags specifies the extra flags of the record, e.g. FLAG_IGNORE_DUPLICATION.
+	 * @return a cached record if the file has the same content.  Null otherwise.
+	 */
+	public HashRecord get(String path, byte[] sha1, int flags) throws IOException {
+		long index = find(path);
+		if (index >= 0 &&
+			Arrays.equals(previous.getSha1(index), sha1) &&
+			hasFlags(index, flags)) {
+			return previous.getRecord(index);
+		}
+		return null;
+	}
+
+	private boolean hasFlags(long index, int flags) {
+		int mask = ~(BinaryHashFormat.FLAG_MINHASH | BinaryHashFormat.FLAG_NORMALIZED_MINHASH);
+		return (previous.getFlags(index) & mask) == flags;
+	}
+
+	/**
+	 * Add a record to the new cache file.
+	 * @param flags specifies the extra flags of the record, e.g. FLAG_IGNORE_DUPLICATION.
+	 * @param lastModified is the last modified time of the file.
+	 * 0 makes the next run verify the file content.
+	 */
+	public void put(HashRecord record, int flags, long lastModified) throws IOException {
+		writer.write(record, flags, lastModified);
+	}
+
+	/**
+	 * Replace the cache file with the new file.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (writer == null) return;
+		try {
+			writer.close();
+			writer = null;
+			close(previous);
+			previous = null;
+			Files.move(newFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			if (writer != null) {
+				writer.close();
+				writer = null;
+			}
+			newFile.delete();
+		}
+	}
+
+	private static void close(BinaryHashReader reader) throws IOException {
+		if (reader != null) {
+			reader.close();
+		}
+	}
+
+}
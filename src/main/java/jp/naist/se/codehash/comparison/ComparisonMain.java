@@ -5,16 +5,59 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.LineNumberReader;
 import java.io.PrintStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import jp.naist.se.codehash.GitCodeHash;
+import jp.naist.se.codehash.HashStringUtil;
+import jp.naist.se.codehash.binary.BinaryHashReader;
 
 public class ComparisonMain {
 
 	
 	public static final double THRESHOLD = 0.7;
 	
+	/**
+	 * The maximum hamming distance between minhash vectors of a reported pair.
+	 */
+	private static final int DISTANCE_BOUND = MinHashEntry.getDistanceBound(GitCodeHash.BBITMINHASH_BITCOUNT, THRESHOLD);
+	
+	/**
+	 * An option to compare only candidate pairs found by locality-sensitive hashing.
+	 * "-lsh" uses the default parameters.  "-lsh:32x16" specifies 32 bands of 16 bits.
+	 */
+	public static final String ARG_LSH = "-lsh";
+	
+	/**
+	 * An option to keep minhash vectors outside of the Java heap using MinHashStore.
+	 */
+	public static final String ARG_MMAP = "-mmap";
+	
+	/**
+	 * An option to compare entries using multiple threads, e.g. "-threads:8".
+	 */
+	public static final String ARG_THREADS = "-threads:";
+	
+	/**
+	 * The number of rows (entries compared with their following entries) processed by a task.
+	 */
+	private static final int ROWS_PER_BLOCK = 64;
+
+	/**
+	 * The number of tasks per thread submitted ahead of the output.
+	 * This bounds the size of the output waiting to be written.
+	 */
+	private static final int TASKS_PER_THREAD = 16;
+	
 	/**
 	 * Compare minhash in given files
 	 * @param args specify a list of file names
@@ -22,28 +65,163 @@ public class ComparisonMain {
 	public static void main(String[] args) {
 		// Load entries ignoring same codehash files
 		ComparisonMain main = new ComparisonMain();
+		boolean mmap = false;
+		ArrayList<File> files = new ArrayList<>();
 		for (String arg: args) {
+			if (arg.equals(ARG_MMAP)) {
+				mmap = true;
+				continue;
+			} else if (arg.startsWith(ARG_THREADS)) {
+				String nString = arg.substring(ARG_THREADS.length());
+				try {
+					int threads = Integer.parseInt(nString);
+					if (threads < 1) {
+						System.err.println("The number of threads must be a positive integer: " + nString);
+						return;
+					}
+					main.setThreads(threads);
+				} catch (NumberFormatException e) {
+					System.err.println("Invalid number: " + nString);
+					return;
+				}
+				continue;
+			} else if (arg.startsWith(ARG_LSH)) {
+				int bands = LSHIndex.DEFAULT_BANDS;
+				int rows = LSHIndex.DEFAULT_ROWS;
+				if (arg.startsWith(ARG_LSH + ":")) {
+					String[] params = arg.substring(ARG_LSH.length() + 1).split("x");
+					try {
+						bands = Integer.parseInt(params[0]);
+						rows = params.length > 1 ? Integer.parseInt(params[1]) : -1;
+					} catch (NumberFormatException e) {
+						rows = -1;
+					}
+				}
+				if (!LSHIndex.isValid(bands, rows)) {
+					System.err.println("Invalid LSH parameters: " + arg);
+					return;
+				}
+				main.setLSH(bands, rows);
+				continue;
+			}
 			File f = new File(arg);
 			if (f.exists() && f.isFile() && f.canRead()) {
-				main.read(f);
+				files.add(f);
+			}
+		}
+		if (mmap) {
+			if (main.lshBands > 0) {
+				System.err.println(ARG_LSH + " is not supported with " + ARG_MMAP);
+				return;
+			}
+			try {
+				main.store = new MinHashStore();
+			} catch (IOException e) {
+				System.err.println("Failed to create a minhash store: " + e.getMessage());
+				return;
 			}
 		}
 		
+		for (File f: files) {
+			main.read(f);
+		}
 		System.err.println(main.getEntryCount() + " unique files found.");
 		main.analyze(System.out);
+		if (main.store != null) {
+			try {
+				main.store.close();
+			} catch (IOException e) {
+			}
+		}
 	}
 	
 	private ArrayList<MinHashEntry> entries = new ArrayList<>();
 	private HashMap<String, ArrayList<String>> codehashToFileNames = new HashMap<>();
+	private HashMap<String, String> sha1ToCodehash;
 	private HashMap<String, String> languages = new HashMap<>(32);
+	private int lshBands = 0;
+	private int lshRows = 0;
+	private MinHashStore store;
+	private int threads = 1;
 	
 	public ComparisonMain() {
 	}
 	
+	/**
+	 * Enable candidate pair selection using locality-sensitive hashing.
+	 * @param bands specifies the number of bands.
+	 * @param rows specifies the number of bits in a band.
+	 */
+	public void setLSH(int bands, int rows) {
+		this.lshBands = bands;
+		this.lshRows = rows;
+	}
+	
+	/**
+	 * @param threads specifies the number of threads to compare entries.
+	 * The output is the same as a single thread.
+	 */
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+	
+	/**
+	 * Record the SHA-1 hash of every row read by read(), in addition to the hash of an entry.
+	 * This enables getCodehash(String).  It must be called before read().
+	 */
+	public void setSha1Index(boolean enabled) {
+		this.sha1ToCodehash = enabled ? new HashMap<String, String>() : null;
+	}
+	
+	/**
+	 * @return the codehash of a file having the SHA-1 hash.  
+	 * Null if no file has the hash, or setSha1Index is not enabled.
+	 */
+	public String getCodehash(String sha1) {
+		return sha1ToCodehash != null ? sha1ToCodehash.get(sha1) : null;
+	}
+	
+	/**
+	 * Register a row for an entry having the codehash.
+	 * @return true if the row is the first one having the codehash.
+	 */
+	private boolean addFileName(String filename, String sha1, String codehash) {
+		if (sha1ToCodehash != null && !sha1ToCodehash.containsKey(sha1)) {
+			sha1ToCodehash.put(sha1, codehash);
+		}
+		ArrayList<String> filenames = codehashToFileNames.get(codehash);
+		if (filenames == null) {
+			filenames = new ArrayList<>();
+			filenames.add(filename);
+			codehashToFileNames.put(codehash, filenames);
+			return true;
+		} else {
+			filenames.add(filename);
+			return false;
+		}
+	}
+	
 	public int getEntryCount() {
+		if (store != null) {
+			return store.getUniqueEntries().length;
+		}
 		return entries.size();
 	}
 	
+	/**
+	 * @return entries having unique codehash values read by read().
+	 */
+	public List<MinHashEntry> getEntries() {
+		return entries;
+	}
+	
+	/**
+	 * @return file names having the codehash.  Null if no entry has the codehash.
+	 */
+	public ArrayList<String> getFileNames(String codehash) {
+		return codehashToFileNames.get(codehash);
+	}
+	
 	/**
 	 * Replace a language string into a common string for faster comparison
 	 * @param lang
@@ -60,9 +238,20 @@ public class ComparisonMain {
 	
 	/**
 	 * Read a hash list file  
-	 * @param f specifies a file
+	 * @param f specifies a file.  It may be either a TSV file or a binary file created by FileCodeHash.
 	 */
 	public void read(File f) {
+		if (store != null) {
+			try {
+				store.read(f);
+			} catch (IOException e) {
+				System.err.println("Failed to read " + f.getAbsolutePath());
+			}
+			return;
+		} else if (BinaryHashReader.isBinaryHashFile(f)) {
+			readBinary(f);
+			return;
+		}
 		try (LineNumberReader reader = new LineNumberReader(new FileReader(f))) {
 			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
 				String[] tokens = line.split("\t");
@@ -76,68 +265,234 @@ public class ComparisonMain {
 				int tokenLength = Integer.parseInt(tokens[7]);
 				int ngramSize = Integer.parseInt(tokens[8]);
 				
-				if (!codehashToFileNames.containsKey(codehash)) {
+				if (addFileName(filename, sha1, codehash)) {
 					entries.add(new MinHashEntry(filename, sha1, toSingleInstance(lang), codehash, minhash, normalizedMinhash, fileLength, tokenLength, ngramSize));
-					ArrayList<String> filenames = new ArrayList<>();
-					filenames.add(filename);
-					codehashToFileNames.put(codehash, filenames);
-				} else {
-					ArrayList<String> filenames = codehashToFileNames.get(codehash);
-					filenames.add(filename);
 				}
 			}
 		} catch (IOException e) {
 			System.err.println("Failed to read " + f.getAbsolutePath());
 		}
 	}
+	
+	/**
+	 * Read a binary hash file.  
+	 * Records without normalized minhash (e.g. created by GitCodeHash) are skipped.
+	 * @param f specifies a file
+	 */
+	private void readBinary(File f) {
+		try (BinaryHashReader reader = new BinaryHashReader(f)) {
+			long skipped = 0;
+			for (long i=0; i<reader.getCount(); i++) {
+				byte[] minhash = reader.getMinhash(i);
+				byte[] normalizedMinhash = reader.getNormalizedMinhash(i);
+				if (minhash == null || normalizedMinhash == null) {
+					skipped++;
+					continue;
+				}
+				String filename = reader.getPath(i);
+				String codehash = HashStringUtil.bytesToHex(reader.getCodehash(i));
+				String sha1 = HashStringUtil.bytesToHex(reader.getSha1(i));
+				if (addFileName(filename, sha1, codehash)) {
+					String lang = reader.getLang(i).name();
+					entries.add(new MinHashEntry(filename, sha1, toSingleInstance(lang), codehash, minhash, normalizedMinhash, reader.getFileLength(i), reader.getTokenCount(i), reader.getNgramCount(i)));
+				}
+			}
+			if (skipped > 0) {
+				System.err.println(skipped + " records without normalized minhash are skipped in " + f.getAbsolutePath());
+			}
+		} catch (IOException e) {
+			System.err.println("Failed to read " + f.getAbsolutePath());
+		}
+	}
 
 	public void analyze(PrintStream out) {
-		// Sort for efficient comparison
-		entries.sort(new Comparator<MinHashEntry>() {
-			@Override
-			public int compare(MinHashEntry o1, MinHashEntry o2) {
-				return o1.compareTo(o2);
+		if (store == null) {
+			// Sort for efficient comparison
+			entries.sort(new Comparator<MinHashEntry>() {
+				@Override
+				public int compare(MinHashEntry o1, MinHashEntry o2) {
+					return o1.compareTo(o2);
+				}
+			});
+			// Sort file names in advance, since they may be read by multiple threads
+			for (ArrayList<String> filenames: codehashToFileNames.values()) {
+				Collections.sort(filenames);
 			}
-		});
+		}
 
 		out.println("CodeHash1\tCodeHash2\tTokenLength1\tTokenLength2\tEstimatedSim\tEstimatedSimWithNormalization\tFileNames1\tFileNames2");
-		// Compare all pairs
-		for (int i=0; i<entries.size(); i++) {
+		if (lshBands > 0) {
+			analyzeCandidates(out);
+			return;
+		}
+		
+		// Compare all pairs.  Rows are divided into blocks.
+		final int count = store != null ? store.getUniqueEntries().length : entries.size();
+		ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+		try {
+			ArrayDeque<Future<String>> pending = new ArrayDeque<>();
+			for (int start=0; start<count; start+=ROWS_PER_BLOCK) {
+				final int from = start;
+				final int to = Math.min(start + ROWS_PER_BLOCK, count);
+				Callable<String> task = new Callable<String>() {
+					@Override
+					public String call() throws IOException {
+						StringBuilder buf = new StringBuilder();
+						if (store != null) {
+							compareStoreRows(from, to, buf);
+						} else {
+							compareRows(from, to, buf);
+						}
+						return buf.toString();
+					}
+				};
+				if (pool != null) {
+					pending.add(pool.submit(task));
+					if (pending.size() >= threads * TASKS_PER_THREAD) {
+						out.print(pending.removeFirst().get());
+					}
+				} else {
+					out.print(task.call());
+				}
+			}
+			while (!pending.isEmpty()) {
+				out.print(pending.removeFirst().get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			System.err.println("Failed to compare entries: " + e.getCause());
+		} catch (Exception e) {
+			System.err.println("Failed to compare entries: " + e);
+		} finally {
+			if (pool != null) pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Compare entries in the rows [from, to) with their following entries.
+	 * @param buf receives lines of reported pairs.
+	 */
+	private void compareRows(int from, int to, StringBuilder buf) {
+		for (int i=from; i<to; i++) {
 			MinHashEntry e1 = entries.get(i);
 			for (int j=i+1; j<entries.size(); j++) {
 				MinHashEntry e2 = entries.get(j);
 				if (e1.getMaxSimilairty(e2) < THRESHOLD) break;
 				if (!e1.isSameLanguage(e2)) continue;
-				double normalizedEstimated = e1.estimateNormalizedSimilarity(e2);
 				// Check only normalized estimated because normalized similarity is always higher than exact similarity 
 				// (though there exists a risk that the estimated value is lower than actual)
+				int distance = e1.getNormalizedDistance(e2, DISTANCE_BOUND);
+				if (distance > DISTANCE_BOUND) continue;
+				double normalizedEstimated = e1.toSimilarity(e2, distance);
 				if (normalizedEstimated >= THRESHOLD) {
-					double estimated = e1.estimateSimilarity(e2); 
-					StringBuilder buf = new StringBuilder(1024);
-					buf.append(e1.getCodehash());
+					appendPair(buf, e1, e2, normalizedEstimated);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Compare only pairs sharing a band of normalized minhash.
+	 * Reported pairs are printed in the same order as the all-pairs comparison.  
+	 * @param out
+	 */
+	private void analyzeCandidates(PrintStream out) {
+		final PairList pairs = new PairList();
+		LSHIndex index = new LSHIndex(entries, lshBands, lshRows);
+		index.forEachCandidate(new LSHIndex.PairVisitor() {
+			@Override
+			public boolean visit(int i, int j) {
+				MinHashEntry e1 = entries.get(i);
+				MinHashEntry e2 = entries.get(j);
+				if (e1.getMaxSimilairty(e2) < THRESHOLD) return false;
+				if (e1.isSameLanguage(e2)) {
+					int distance = e1.getNormalizedDistance(e2, DISTANCE_BOUND);
+					if (distance <= DISTANCE_BOUND && e1.toSimilarity(e2, distance) >= THRESHOLD) {
+						pairs.add(i, j);
+					}
+				}
+				return true;
+			}
+		});
+		
+		long[] sorted = pairs.toSortedArray();
+		for (long pair: sorted) {
+			MinHashEntry e1 = entries.get((int)(pair >>> 32));
+			MinHashEntry e2 = entries.get((int)pair);
+			StringBuilder buf = new StringBuilder(1024);
+			appendPair(buf, e1, e2, e1.estimateNormalizedSimilarity(e2));
+			out.print(buf.toString());
+		}
+	}
+	
+	/**
+	 * Compare unique entries of the store in the rows [from, to) with their following entries.
+	 * Paths are resolved only for reported pairs. 
+	 * @param buf receives lines of reported pairs.
+	 */
+	private void compareStoreRows(int from, int to, StringBuilder buf) throws IOException {
+		int[] unique = store.getUniqueEntries();
+		for (int i=from; i<to; i++) {
+			int e1 = unique[i];
+			for (int j=i+1; j<unique.length; j++) {
+				int e2 = unique[j];
+				if (store.getMaxSimilarity(e1, e2) < THRESHOLD) break;
+				if (!store.isSameLanguage(e1, e2)) continue;
+				int distance = store.getNormalizedDistance(e1, e2, DISTANCE_BOUND);
+				if (distance > DISTANCE_BOUND) continue;
+				double normalizedEstimated = store.toSimilarity(e1, e2, distance);
+				if (normalizedEstimated >= THRESHOLD) {
+					ArrayList<String> filenames1 = store.getPaths(e1);
+					ArrayList<String> filenames2 = store.getPaths(e2);
+					Collections.sort(filenames1);
+					Collections.sort(filenames2);
+					buf.append(store.getCodehash(e1));
 					buf.append("\t");
-					buf.append(e2.getCodehash());
+					buf.append(store.getCodehash(e2));
 					buf.append("\t");
-					buf.append(e1.getTokenLength());
+					buf.append(store.getTokenLength(e1));
 					buf.append("\t");
-					buf.append(e2.getTokenLength());
+					buf.append(store.getTokenLength(e2));
 					buf.append("\t");
-					buf.append(estimated);
+					buf.append(store.estimateSimilarity(e1, e2));
 					buf.append("\t");
 					buf.append(normalizedEstimated);
 					buf.append("\t");
-					buf.append(getFileNames(e1.getCodehash()));
+					buf.append(joinFileNames(filenames1));
 					buf.append("\t");
-					buf.append(getFileNames(e2.getCodehash()));
-					out.println(buf.toString());
+					buf.append(joinFileNames(filenames2));
+					buf.append(System.lineSeparator());
 				}
 			}
 		}
 	}
 	
-	private String getFileNames(String codehash) {
-		ArrayList<String> filenames = codehashToFileNames.get(codehash);
-		Collections.sort(filenames);
+	private void appendPair(StringBuilder buf, MinHashEntry e1, MinHashEntry e2, double normalizedEstimated) {
+		double estimated = e1.estimateSimilarity(e2); 
+		buf.append(e1.getCodehash());
+		buf.append("\t");
+		buf.append(e2.getCodehash());
+		buf.append("\t");
+		buf.append(e1.getTokenLength());
+		buf.append("\t");
+		buf.append(e2.getTokenLength());
+		buf.append("\t");
+		buf.append(estimated);
+		buf.append("\t");
+		buf.append(normalizedEstimated);
+		buf.append("\t");
+		buf.append(joinFileNames(codehashToFileNames.get(e1.getCodehash())));
+		buf.append("\t");
+		buf.append(joinFileNames(codehashToFileNames.get(e2.getCodehash())));
+		buf.append(System.lineSeparator());
+	}
+	
+	/**
+	 * @param filenames is a sorted list of file names.
+	 * @return a comma-separated string.
+	 */
+	private static String joinFileNames(ArrayList<String> filenames) {
 		StringBuilder buf = new StringBuilder();
 		for (String filename: filenames) {
 			if (buf.length() > 0) buf.append(",");
@@ -146,4 +501,26 @@ public class ComparisonMain {
 		return buf.toString();
 	}
 	
+	/**
+	 * A list of index pairs encoded in long values.
+	 */
+	private static class PairList {
+		
+		private long[] pairs = new long[1024];
+		private int size = 0;
+		
+		public void add(int i, int j) {
+			if (size == pairs.length) {
+				pairs = Arrays.copyOf(pairs, size * 2);
+			}
+			pairs[size++] = ((long)i << 32) | j;
+		}
+		
+		public long[] toSortedArray() {
+			long[] result = Arrays.copyOf(pairs, size);
+			Arrays.sort(result);
+			return result;
+		}
+	}
+	
 }
@@ -1,13 +1,17 @@
 package jp.naist.se.codehash.comparison;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.MinimalPrettyPrinter;
 
 import jp.naist.se.codehash.FileType;
 import jp.naist.se.codehash.GitCodeHash;
@@ -27,12 +31,29 @@ public class DirectComparisonMain {
 	 */
 	private static String NGRAM_OPTION = "-n:";
 
+	/**
+	 * An option to load files using multiple threads, e.g. "-threads:8".
+	 * The output is the same as a single thread.
+	 */
+	private static String THREADS_OPTION = "-threads:";
+
+	/**
+	 * An option to warm up lexers for languages before loading files, e.g. "-warmup:JAVA,CPP".
+	 */
+	private static String WARMUP_OPTION = "-warmup:";
+
 	private static String THRESHOLD = "-th:";
 	
 	private static String THRESHOLD_NORMALIZED_JACCARD = "-thnj:";
 	
 	private static String THRESHOLD_ESTIMATED_NORMALIZED_JACCARD = "-thenj:";
 
+	/**
+	 * An option to compare only candidate pairs found by locality-sensitive hashing.
+	 * "-lsh" uses the default parameters.  "-lsh:32x16" specifies 32 bands of 16 bits.
+	 */
+	private static String LSH_OPTION = "-lsh";
+
 	/**
 	 * A file name filter to select files for comparison
 	 * (other files are included only for IDF)
@@ -67,6 +88,15 @@ public class DirectComparisonMain {
 	 */
 	private static String METRICS = "-metrics:";
 
+	/**
+	 * An option to select an output format.  "-format:json" (default) writes a single JSON object.
+	 * "-format:ndjson" writes one compact JSON object per line, so that the output can be consumed during a run.
+	 */
+	private static String FORMAT_OPTION = "-format:";
+	
+	private static final String FORMAT_JSON = "json";
+	private static final String FORMAT_NDJSON = "ndjson";
+
 	private static final String METRIC_JACCARD_DISTANCE_WITHOUT_NORMALIZATION = "exact-jaccard";
 	private static final String METRIC_JACCARD_DISTANCE = "jaccard";
 	private static final String METRIC_OVERLAP_COEFFICIENT = "overlap-coefficient";
@@ -97,11 +127,48 @@ public class DirectComparisonMain {
 	private FileType selectedLanguage = null;
 	
 	private int N = GitCodeHash.BBITMINHASH_NGRAM_SIZE;
+	private int threads = 1;
 	private double threshold = 0;
 	private double thresholdNormalizedJaccard = -1;
 	private double thresholdEstimatedNormalizedJaccard = -1;
+	private int lshBands = 0;
+	private int lshRows = 0;
 	private HashMap<String, FileGroup> groups = new HashMap<>();
 	
+	/**
+	 * Files of all groups in the iteration order of the groups.
+	 * A position in this list identifies a file during candidate generation.
+	 */
+	private ArrayList<FileEntity> allFiles;
+	
+	/**
+	 * groupStart[g] is the position of the first file of g-th group in allFiles.
+	 * groupStart[groupCount] is the number of all files.
+	 */
+	private int[] groupStart;
+	
+	/**
+	 * Positions of files in each group sorted by their N-gram counts.
+	 */
+	private int[][] positionsByNgramCount;
+	
+	/**
+	 * A buffer to sort candidates for a file.
+	 */
+	private int[] candidates;
+	
+	/**
+	 * Candidate pairs (x << 32 | y, x < y) found by LSH in ascending order.
+	 * Null if LSH is not used.
+	 */
+	private long[] lshPairs;
+	private int lshPairCount;
+	
+	/**
+	 * A pair of files is skipped if the ratio of their N-gram counts is less than this value.
+	 */
+	private double sizeRatioBound;
+	
 	/**
 	 * If true, the program compares files across groups but skip comparison within a file group.
 	 * If false, the program compares files within a group but does not compare files across groups.
@@ -114,6 +181,11 @@ public class DirectComparisonMain {
 	private boolean useJaccard = true;
 	private boolean useOverlapSimilarity = true;
 	private boolean useOverlapCoefficient = true;
+	
+	/**
+	 * If true, each file and pair is written as a line.
+	 */
+	private boolean ndjson = false;
 
 	/**
 	 * Construct an object from command line arguments.
@@ -140,6 +212,44 @@ public class DirectComparisonMain {
 					System.err.println("Invalid number: " + nString);
 					return;
 				}
+			} else if (s.startsWith(THREADS_OPTION)) {
+				String nString = s.substring(THREADS_OPTION.length());
+				try {
+					threads = Integer.parseInt(nString);
+					if (threads < 1) {
+						System.err.println("The number of threads must be a positive integer: " + nString);
+						invalid = true;
+						return;
+					}
+				} catch (NumberFormatException e) {
+					System.err.println("Invalid number: " + nString);
+					invalid = true;
+					return;
+				}
+			} else if (s.startsWith(WARMUP_OPTION)) {
+				String names = s.substring(WARMUP_OPTION.length());
+				if (!FileType.warmUp(names)) {
+					System.err.println("Unsupported language: " + names);
+					invalid = true;
+					return;
+				}
+			} else if (s.startsWith(LSH_OPTION)) {
+				lshBands = LSHIndex.DEFAULT_BANDS;
+				lshRows = LSHIndex.DEFAULT_ROWS;
+				if (s.startsWith(LSH_OPTION + ":")) {
+					String[] params = s.substring(LSH_OPTION.length() + 1).split("x");
+					try {
+						lshBands = Integer.parseInt(params[0]);
+						lshRows = params.length > 1 ? Integer.parseInt(params[1]) : -1;
+					} catch (NumberFormatException e) {
+						lshRows = -1;
+					}
+				}
+				if (!LSHIndex.isValid(lshBands, lshRows)) {
+					System.err.println("Invalid LSH parameters: " + s);
+					invalid = true;
+					return;
+				}
 			} else if (s.startsWith(THRESHOLD_ESTIMATED_NORMALIZED_JACCARD)) {
 				thresholdEstimatedNormalizedJaccard = parseThreshold(THRESHOLD_ESTIMATED_NORMALIZED_JACCARD, s);
 				if (Double.isNaN(thresholdEstimatedNormalizedJaccard)) {
@@ -166,6 +276,17 @@ public class DirectComparisonMain {
 				useJaccard = metricNames.contains(METRIC_JACCARD_DISTANCE);
 				useOverlapCoefficient = metricNames.contains(METRIC_OVERLAP_COEFFICIENT);
 				useOverlapSimilarity = metricNames.contains(METRIC_OVERLAP_SIMILARITY);
+			} else if (s.startsWith(FORMAT_OPTION)) {
+				String format = s.substring(FORMAT_OPTION.length());
+				if (format.equals(FORMAT_NDJSON)) {
+					ndjson = true;
+				} else if (format.equals(FORMAT_JSON)) {
+					ndjson = false;
+				} else {
+					System.err.println("Unsupported format: " + format);
+					invalid = true;
+					return;
+				}
 			} else if (s.equals(COMPARE_CRSOS_GROUP)) {
 				compareGroups = true;
 //			} else if (s.startsWith(FILENAME_SELECTOR)) {
@@ -224,12 +345,20 @@ public class DirectComparisonMain {
 	}
 	
 	public void run() {
+		run(System.out);
+	}
+	
+	/**
+	 * Compare files and write the result.
+	 * @param out receives the JSON output.  It is closed at the end.
+	 */
+	public void run(OutputStream out) {
 		if (invalid) return;
 		
 		// Load files
-		for (FileGroup g: groups.values()) {
-			g.loadEntities(selectedLanguage, N);
-		}
+		FileGroup.loadEntities(groups.values(), selectedLanguage, N, threads);
+		ArrayList<FileGroup> groupList = new ArrayList<>(groups.values());
+		prepareCandidates(groupList);
 		
 //		// Count the number of Ngrams
 //		StringMultiset normalizedNgramFrequencyInSelectedFiles = new StringMultiset(1024);
@@ -246,16 +375,22 @@ public class DirectComparisonMain {
 //		}
 
 		JsonFactory f = new JsonFactory();
-		try (JsonGenerator gen = f.createGenerator(System.out)) {
-			gen.useDefaultPrettyPrinter();
-			gen.writeStartObject();
+		try (JsonGenerator gen = f.createGenerator(out)) {
+			if (ndjson) {
+				// Records are separated by line breaks written after them 
+				gen.setPrettyPrinter(new MinimalPrettyPrinter(""));
+			} else {
+				gen.useDefaultPrettyPrinter();
+				gen.writeStartObject();
 			
-			// Print a file list
-			gen.writeArrayFieldStart("Files");
+				// Print a file list
+				gen.writeArrayFieldStart("Files");
+			}
 			
 			for (FileGroup g: groups.values()) {
 				for (FileEntity e1: g.getFiles()) {
 					gen.writeStartObject();
+					if (ndjson) gen.writeStringField("type", "file");
 					gen.writeStringField("group", g.getGroupId());
 					gen.writeNumberField("index", e1.getIndex());
 					gen.writeStringField("path", e1.getPath());
@@ -265,54 +400,194 @@ public class DirectComparisonMain {
 					gen.writeNumberField("byte-length", e1.getByteLength());
 					gen.writeNumberField("token-length", e1.getTokenLength());
 					gen.writeNumberField("ngram-count", e1.getNgramCount());
-					gen.writeEndObject();
+					endRecord(gen);
 				}
 			}
-			gen.writeEndArray();
-
-			gen.writeArrayFieldStart("Pairs");
+			
+			if (ndjson) {
+				// A consumer can start processing files before comparison
+				gen.flush();
+			} else {
+				gen.writeEndArray();
+				gen.writeArrayFieldStart("Pairs");
+			}
 
 			if (compareGroups) {
 				// Compare across groups
-				ArrayList<FileGroup> groupList = new ArrayList<>(groups.values());
-				
 				for (int i=0; i<groupList.size(); i++) {
 					for (int j=i+1; j<groupList.size(); j++) {
-						
-						ArrayList<FileEntity> files1 = groupList.get(i).getFiles();
-						ArrayList<FileEntity> files2 = groupList.get(j).getFiles();
-						
-						for (FileEntity e1: files1) {
-							for (FileEntity e2: files2) {
-								compare(gen, e1, e2);
-							}
+						for (int x=groupStart[i]; x<groupStart[i+1]; x++) {
+							compareRow(gen, x, j, groupStart[j]);
 						}
-						
 					}
 				}
 				
 			} else {
 				// Compare within groups
-				for (FileGroup g: groups.values()) {
-					ArrayList<FileEntity> files = g.getFiles();
-					for (int i=0; i<files.size(); i++) {
-						FileEntity e1 = files.get(i);
-						for (int j=i+1; j<files.size(); j++) {
-							FileEntity e2 = files.get(j);
-							compare(gen, e1, e2);
-						}
+				for (int g=0; g<groupList.size(); g++) {
+					for (int x=groupStart[g]; x<groupStart[g+1]; x++) {
+						compareRow(gen, x, g, x+1);
 					}
 				}
 			}
 			
-			gen.writeEndArray();
-			gen.writeEndObject();
+			if (!ndjson) {
+				gen.writeEndArray();
+				gen.writeEndObject();
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 
 	}
 	
+	/**
+	 * Prepare data structures to select candidate pairs. 
+	 * Pairs are pruned by the ratio of N-gram counts if thresholds allow it, 
+	 * and then by LSH if it is enabled.
+	 */
+	private void prepareCandidates(ArrayList<FileGroup> groupList) {
+		allFiles = new ArrayList<>();
+		groupStart = new int[groupList.size() + 1];
+		positionsByNgramCount = new int[groupList.size()][];
+		for (int g=0; g<groupList.size(); g++) {
+			groupStart[g] = allFiles.size();
+			allFiles.addAll(groupList.get(g).getFiles());
+			groupStart[g+1] = allFiles.size();
+			
+			Integer[] positions = new Integer[groupStart[g+1] - groupStart[g]];
+			for (int i=0; i<positions.length; i++) {
+				positions[i] = groupStart[g] + i;
+			}
+			Arrays.sort(positions, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer o1, Integer o2) {
+					return Integer.compare(allFiles.get(o1).getNgramCount(), allFiles.get(o2).getNgramCount());
+				}
+			});
+			positionsByNgramCount[g] = new int[positions.length];
+			if (candidates == null || candidates.length < positions.length) {
+				candidates = new int[positions.length];
+			}
+			for (int i=0; i<positions.length; i++) {
+				positionsByNgramCount[g][i] = positions[i];
+			}
+		}
+		
+		// Jaccard index and overlap similarity are at most min(|S1|, |S2|) / max(|S1|, |S2|),
+		// while overlap coefficient can be 1 for any sizes.
+		sizeRatioBound = 0;
+		if (useJaccard && thresholdNormalizedJaccard > 0) {
+			sizeRatioBound = thresholdNormalizedJaccard;
+		}
+		if (threshold > 0 && !useOverlapCoefficient && !useExactOverlapCoefficient) {
+			sizeRatioBound = Math.max(sizeRatioBound, threshold);
+		}
+		
+		if (lshBands > 0) {
+			List<MinHashEntry> entries = new ArrayList<>(allFiles.size());
+			for (FileEntity e: allFiles) {
+				entries.add(e.getMinHashEntry());
+			}
+			final int[] groupOf = new int[allFiles.size()];
+			for (int g=0; g<groupList.size(); g++) {
+				Arrays.fill(groupOf, groupStart[g], groupStart[g+1], g);
+			}
+			lshPairs = new long[1024];
+			lshPairCount = 0;
+			LSHIndex index = new LSHIndex(entries, lshBands, lshRows);
+			index.forEachCandidate(new LSHIndex.PairVisitor() {
+				@Override
+				public boolean visit(int i, int j) {
+					if ((groupOf[i] != groupOf[j]) == compareGroups && !isPrunedBySize(allFiles.get(i), allFiles.get(j))) {
+						if (lshPairCount == lshPairs.length) {
+							lshPairs = Arrays.copyOf(lshPairs, lshPairCount * 2);
+						}
+						lshPairs[lshPairCount++] = ((long)i << 32) | j;
+					}
+					return true;
+				}
+			});
+			Arrays.sort(lshPairs, 0, lshPairCount);
+		}
+	}
+	
+	/**
+	 * @return true if the pair cannot satisfy the thresholds because of their sizes.
+	 */
+	private boolean isPrunedBySize(FileEntity e1, FileEntity e2) {
+		if (sizeRatioBound <= 0) return false;
+		int n1 = e1.getNgramCount();
+		int n2 = e2.getNgramCount();
+		// The ratio is NaN (not pruned) if both are empty
+		return Math.min(n1, n2) * 1.0 / Math.max(n1, n2) < sizeRatioBound;
+	}
+	
+	/**
+	 * Compare a file with files in a group.
+	 * Files are compared in the order of their positions, as same as comparing all pairs.
+	 * @param x specifies a file in allFiles.
+	 * @param g specifies a group.
+	 * @param from specifies the first position of the group to be compared.
+	 */
+	private void compareRow(JsonGenerator gen, int x, int g, int from) throws IOException {
+		FileEntity e1 = allFiles.get(x);
+		int to = groupStart[g+1];
+		if (lshPairs != null) {
+			int p = lowerBound(lshPairs, lshPairCount, (long)x << 32);
+			for (; p<lshPairCount && (int)(lshPairs[p] >>> 32) == x; p++) {
+				int y = (int)lshPairs[p];
+				if (from <= y && y < to) {
+					compare(gen, e1, allFiles.get(y));
+				}
+			}
+		} else if (sizeRatioBound > 0) {
+			// Select files whose N-gram counts are close to e1
+			int[] positions = positionsByNgramCount[g];
+			int n1 = e1.getNgramCount();
+			int low = 0;
+			int high = positions.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				FileEntity e2 = allFiles.get(positions[mid]);
+				if (e2.getNgramCount() < n1 && isPrunedBySize(e1, e2)) low = mid + 1;
+				else high = mid;
+			}
+			int count = 0;
+			for (int p=low; p<positions.length; p++) {
+				FileEntity e2 = allFiles.get(positions[p]);
+				if (e2.getNgramCount() > n1 && isPrunedBySize(e1, e2)) break;
+				if (positions[p] >= from) candidates[count++] = positions[p];
+			}
+			Arrays.sort(candidates, 0, count);
+			for (int i=0; i<count; i++) {
+				compare(gen, e1, allFiles.get(candidates[i]));
+			}
+		} else {
+			for (int y=from; y<to; y++) {
+				compare(gen, e1, allFiles.get(y));
+			}
+		}
+		if (ndjson) {
+			// Pairs of a row are available to a consumer without waiting for the buffer to fill up
+			gen.flush();
+		}
+	}
+	
+	/**
+	 * @return the first position p such that values[p] >= key.
+	 */
+	private static int lowerBound(long[] values, int length, long key) {
+		int low = 0;
+		int high = length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (values[mid] < key) low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+	
 	private void compare(JsonGenerator gen, FileEntity e1, FileEntity e2) throws IOException {
 		// Compare them if they are written in the same language
 		if (e1.isSameLanguage(e2)) {
@@ -327,13 +602,22 @@ public class DirectComparisonMain {
 			if (thresholdNormalizedJaccard > 0 && similarityValues.getValue("jaccard") < thresholdNormalizedJaccard) return;
 
 			gen.writeStartObject();
+			if (ndjson) gen.writeStringField("type", "pair");
 			gen.writeNumberField("index1", e1.getIndex());
 			gen.writeNumberField("index2", e2.getIndex());
 			similarityValues.writeSimilarity(gen);
-			gen.writeEndObject();
+			endRecord(gen);
 		}
 		
 	}
+	
+	/**
+	 * Close a file or pair object.  In the NDJSON format, a line break follows the object.
+	 */
+	private void endRecord(JsonGenerator gen) throws IOException {
+		gen.writeEndObject();
+		if (ndjson) gen.writeRaw('\n');
+	}
 
 	/**
 	 * 
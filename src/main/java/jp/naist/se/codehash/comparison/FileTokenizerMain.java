@@ -1,11 +1,10 @@
 package jp.naist.se.codehash.comparison;
 
-import java.io.BufferedInputStream;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
 import java.io.StringReader;
+import java.nio.file.Paths;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
@@ -47,8 +46,8 @@ public class FileTokenizerMain {
 					gen.writeStringField("Type", t.name());
 					gen.writeStringField("Name", filename);
 					gen.writeArrayFieldStart("Tokens");
-					try (BufferedInputStream input = new BufferedInputStream(new FileInputStream(filename))) {
-						TokenReader r = FileType.createReader(t, input);
+					try {
+						TokenReader r = FileType.createReader(t, Paths.get(filename));
 						while (r.next()) {
 							gen.writeStartObject();
 							gen.writeNumberField("TokenType", r.getTokenType());
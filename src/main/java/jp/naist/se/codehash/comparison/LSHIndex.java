@@ -0,0 +1,105 @@
+package jp.naist.se.codehash.comparison;
+
+import java.util.Arrays;
+import java.util.List;
+
+import jp.naist.se.codehash.GitCodeHash;
+
+/**
+ * Locality-sensitive hashing (banding) over 1-bit minhash vectors with identifier normalization.
+ * A vector is divided into bands of rows bits.
+ * Two entries are a candidate pair if they have the same bits in at least one band.
+ * For 1-bit minhash, a bit of two files matches with probability (1 + J) / 2 for Jaccard index J.
+ * The default 64 bands x 16 rows reports a pair whose J = 0.7 with probability 0.99,
+ * while a pair whose J = 0.3 is reported with probability 0.06.
+ */
+public class LSHIndex {
+
+	public static final int DEFAULT_BANDS = 64;
+	public static final int DEFAULT_ROWS = 16;
+
+	/**
+	 * A band key is stored in the upper 32 bits of a sort key.
+	 */
+	public static final int MAX_ROWS = 32;
+
+	private List<MinHashEntry> entries;
+	private int bands;
+	private int rows;
+
+	/**
+	 * @param entries specifies a list of entries.  An index of the list identifies an entry.
+	 * @param bands specifies the number of bands.
+	 * @param rows specifies the number of bits in a band (1-32).
+	 */
+	public LSHIndex(List<MinHashEntry> entries, int bands, int rows) {
+		if (!isValid(bands, rows)) throw new IllegalArgumentException("Invalid LSH parameters: " + bands + "x" + rows);
+		this.entries = entries;
+		this.bands = bands;
+		this.rows = rows;
+	}
+
+	/**
+	 * @return true if the parameters fit in a minhash vector.
+	 */
+	public static boolean isValid(int bands, int rows) {
+		return bands > 0 && rows > 0 && rows <= MAX_ROWS && bands * rows <= GitCodeHash.BBITMINHASH_BITCOUNT;
+	}
+
+	/**
+	 * Enumerate candidate pairs.  Each pair is reported only once,
+	 * in the first band where the entries have the same bits.
+	 * Within a band, for each i, candidates j are visited in the ascending order of their indices.
+	 * @param visitor receives candidate pairs (i, j) where i < j.
+	 */
+	public void forEachCandidate(PairVisitor visitor) {
+		int n = entries.size();
+		long[] keys = new long[n];
+		for (int band=0; band<bands; band++) {
+			// Sort entries by their band keys.  Entries having the same key are ordered by their indices.
+			for (int i=0; i<n; i++) {
+				keys[i] = ((long)entries.get(i).getNormalizedBandKey(band * rows, rows) << 32) | i;
+			}
+			Arrays.sort(keys);
+
+			int start = 0;
+			while (start < n) {
+				int end = start + 1;
+				while (end < n && (keys[end] >>> 32) == (keys[start] >>> 32)) end++;
+
+				for (int p=start; p<end; p++) {
+					int i = (int)keys[p];
+					MinHashEntry e1 = entries.get(i);
+					for (int q=p+1; q<end; q++) {
+						int j = (int)keys[q];
+						if (!collidesBefore(e1, entries.get(j), band)) {
+							if (!visitor.visit(i, j)) break;
+						}
+					}
+				}
+				start = end;
+			}
+		}
+	}
+
+	/**
+	 * @return true if the entries have the same key in a band before the specified band.
+	 */
+	private boolean collidesBefore(MinHashEntry e1, MinHashEntry e2, int band) {
+		for (int b=0; b<band; b++) {
+			if (e1.getNormalizedBandKey(b * rows, rows) == e2.getNormalizedBandKey(b * rows, rows)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public interface PairVisitor {
+		/**
+		 * @param i is an index of the first entry.
+		 * @param j is an index of the second entry (i < j).
+		 * @return false if the remaining candidates j for the i in the same bucket should be skipped.
+		 */
+		boolean visit(int i, int j);
+	}
+}
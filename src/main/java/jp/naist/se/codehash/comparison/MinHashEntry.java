@@ -1,6 +1,5 @@
 package jp.naist.se.codehash.comparison;
 
-import java.util.BitSet;
 
 import jp.naist.se.codehash.HashStringUtil;
 
@@ -11,24 +10,75 @@ public class MinHashEntry {
 	private String sha1;
 	private String lang;
 	private String codehash;
-	private BitSet minhash;
-	private BitSet normalizedMinhash;
+	private long[] minhash;
+	private long[] normalizedMinhash;
 	private long fileLength;
 	private int tokenLength;
 	private int size;
 	
 	public MinHashEntry(String filename, String sha1, String lang, String codehash, String bits, String normalizedBits, long fileLength, int tokenLength, int size) {
+		this(filename, sha1, lang, codehash, HashStringUtil.hexToBytes(bits), HashStringUtil.hexToBytes(normalizedBits), fileLength, tokenLength, size);
+	}
+	
+	public MinHashEntry(String filename, String sha1, String lang, String codehash, byte[] bits, byte[] normalizedBits, long fileLength, int tokenLength, int size) {
 		this.filename = filename;
 		this.sha1 = sha1;
 		this.lang = lang;
 		this.codehash = codehash;
-		this.minhash = BitSet.valueOf(HashStringUtil.hexToBytes(bits));
-		this.normalizedMinhash = BitSet.valueOf(HashStringUtil.hexToBytes(normalizedBits));
+		this.minhash = toWords(bits);
+		this.normalizedMinhash = toWords(normalizedBits);
 		this.fileLength = fileLength;
 		this.tokenLength = tokenLength;
 		this.size = size;
 	}
 	
+	/**
+	 * @return long values storing bits in the same order as BitSet.valueOf(byte[]).
+	 */
+	private static long[] toWords(byte[] bytes) {
+		long[] words = new long[(bytes.length + 7) / 8];
+		for (int i=0; i<bytes.length; i++) {
+			words[i / 8] |= (bytes[i] & 0xFFL) << (8 * (i % 8));
+		}
+		return words;
+	}
+	
+	/**
+	 * Compute the hamming distance between two bit vectors.
+	 * @param v1 
+	 * @param v2 must have the same length as v1.
+	 * @param bound specifies the maximum distance of interest.
+	 * @return the distance.  If the distance exceeds the bound, 
+	 * the method may terminate early and return a value between the bound and the distance.
+	 */
+	public static int hammingDistance(long[] v1, long[] v2, int bound) {
+		int distance = 0;
+		for (int i=0; i<v1.length; i++) {
+			distance += Long.bitCount(v1[i] ^ v2[i]);
+			if (distance > bound) return distance;
+		}
+		return distance;
+	}
+	
+	/**
+	 * @return the maximum hamming distance between two vectors of given bits 
+	 * whose estimated similarity is equal to or greater than a threshold.
+	 */
+	public static int getDistanceBound(int bits, double threshold) {
+		int bound = -1;
+		while (bound < bits && 1 - ((bound + 1) * 1.0 / (bits / 2)) >= threshold) {
+			bound++;
+		}
+		return bound;
+	}
+	
+	/**
+	 * @return the number of bits of a minhash vector.
+	 */
+	public int getBitCount() {
+		return minhash.length * 64;
+	}
+	
 	public String getFilename() {
 		return filename;
 	}
@@ -53,20 +103,25 @@ public class MinHashEntry {
 		return tokenLength;
 	}
 	
-	private double estimateSimilarity(MinHashEntry another, BitSet thisSet, BitSet anotherSet) {
+	private double estimateSimilarity(MinHashEntry another, long[] thisSet, long[] anotherSet) {
 		if (this.lang.equals(another.lang)) {
-			BitSet copy = (BitSet)thisSet.clone(); 
-			copy.xor(anotherSet);
-			int differentBitCount = copy.cardinality();
-			double sim = 1 - (differentBitCount * 1.0 / (copy.size() / 2));
-			// The upper bound of similarity can be computed from N-gram set size
-			double maxSim = Math.min(this.size, another.size) * 1.0 / Math.max(this.size, another.size);
-			return Math.min(sim, maxSim);
+			return toSimilarity(another, hammingDistance(thisSet, anotherSet, Integer.MAX_VALUE));
 		} else {
 			return 0;
 		}
 	}
 	
+	/**
+	 * @param differentBitCount is the hamming distance between minhash vectors of the entries. 
+	 * @return the estimated similarity.
+	 */
+	public double toSimilarity(MinHashEntry another, int differentBitCount) {
+		double sim = 1 - (differentBitCount * 1.0 / (getBitCount() / 2));
+		// The upper bound of similarity can be computed from N-gram set size
+		double maxSim = Math.min(this.size, another.size) * 1.0 / Math.max(this.size, another.size);
+		return Math.min(sim, maxSim);
+	}
+	
 	public double getMaxSimilairty(MinHashEntry another) {
 		return  Math.min(this.size, another.size) * 1.0 / Math.max(this.size, another.size);
 	}
@@ -86,6 +141,30 @@ public class MinHashEntry {
 	public double estimateNormalizedSimilarity(MinHashEntry another) {
 		return estimateSimilarity(another, this.normalizedMinhash, another.normalizedMinhash);
 	}
+	
+	/**
+	 * @param bound specifies the maximum distance of interest.
+	 * @return the hamming distance between normalized minhash vectors.
+	 * A value greater than the bound is returned if the distance exceeds the bound. 
+	 */
+	public int getNormalizedDistance(MinHashEntry another, int bound) {
+		return hammingDistance(this.normalizedMinhash, another.normalizedMinhash, bound);
+	}
+
+	/**
+	 * @param fromIndex specifies the first bit of a band in the normalized minhash.
+	 * @param rows specifies the number of bits in the band (at most 32).
+	 * @return the bits packed into an int value.
+	 */
+	public int getNormalizedBandKey(int fromIndex, int rows) {
+		int word = fromIndex >>> 6;
+		int shift = fromIndex & 63;
+		long bits = normalizedMinhash[word] >>> shift;
+		if (shift + rows > 64) {
+			bits |= normalizedMinhash[word + 1] << (64 - shift);
+		}
+		return (int)(bits & ((1L << rows) - 1));
+	}
 
 
 }
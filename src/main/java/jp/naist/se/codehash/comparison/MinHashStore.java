@@ -0,0 +1,373 @@
+package jp.naist.se.codehash.comparison;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import jp.naist.se.codehash.GitCodeHash;
+import jp.naist.se.codehash.HashStringUtil;
+import jp.naist.se.codehash.binary.BinaryHashReader;
+import jp.naist.se.codehash.util.MappedLongArray;
+
+/**
+ * A store of minhash entries for a large number of files.
+ * Minhash vectors and codehash values are stored outside of the Java heap,
+ * in memory-mapped regions (one region for each kind), 
+ * and the other attributes are stored in primitive arrays.
+ * An entry is addressed by an index.  
+ * File paths are not loaded; they are read from the source files on demand.
+ */
+public class MinHashStore implements AutoCloseable {
+
+	public static final int MINHASH_WORDS = GitCodeHash.BBITMINHASH_BITCOUNT / 64;
+	private static final int CODEHASH_WORDS = 3;
+
+	/**
+	 * A locator of a path is a pair of a source file index and a position in the file.
+	 * The position is a byte offset of a line in a TSV file, or a record index in a binary file. 
+	 */
+	private static final int POSITION_BITS = 48;
+	private static final long POSITION_MASK = (1L << POSITION_BITS) - 1;
+
+	private MappedLongArray minhash;
+	private MappedLongArray normalizedMinhash;
+	private MappedLongArray codehash;
+	private int[] ngramCount = new int[1024];
+	private int[] tokenLength = new int[1024];
+	private byte[] lang = new byte[1024];
+	private long[] locator = new long[1024];
+	private int size;
+	
+	private ArrayList<String> languages = new ArrayList<>();
+	private ArrayList<File> sources = new ArrayList<>();
+	private ArrayList<BinaryHashReader> binarySources = new ArrayList<>();
+	private RandomAccessFile[] textSources = new RandomAccessFile[0];
+
+	private int[] uniqueEntries;
+	private int[] nextDuplicate;
+	
+	public MinHashStore() throws IOException {
+		minhash = new MappedLongArray();
+		normalizedMinhash = new MappedLongArray();
+		codehash = new MappedLongArray();
+	}
+	
+	/**
+	 * Read a hash list file.
+	 * @param f specifies a TSV file or a binary file created by FileCodeHash.
+	 */
+	public void read(File f) throws IOException {
+		if (BinaryHashReader.isBinaryHashFile(f)) {
+			readBinary(f);
+		} else {
+			readText(f);
+		}
+	}
+	
+	private int addSource(File f, BinaryHashReader reader) {
+		sources.add(f);
+		binarySources.add(reader);
+		return sources.size() - 1;
+	}
+	
+	private void readText(File f) throws IOException {
+		int source = addSource(f, null);
+		try (InputStream in = new BufferedInputStream(new FileInputStream(f), 65536)) {
+			byte[] line = new byte[4096];
+			long position = 0;
+			while (true) {
+				long start = position;
+				int length = 0;
+				int b;
+				while ((b = in.read()) >= 0 && b != '\n') {
+					if (length == line.length) line = Arrays.copyOf(line, length * 2);
+					line[length++] = (byte)b;
+				}
+				if (b < 0 && length == 0) break;
+				position += length + (b >= 0 ? 1 : 0);
+				if (length > 0 && line[length-1] == '\r') length--;
+				if (length == 0) continue;
+
+				String[] tokens = new String(line, 0, length, Charset.defaultCharset()).split("\t");
+				add(HashStringUtil.hexToBytes(tokens[3]), HashStringUtil.hexToBytes(tokens[4]), HashStringUtil.hexToBytes(tokens[5]), 
+						tokens[2], Integer.parseInt(tokens[7]), Integer.parseInt(tokens[8]), ((long)source << POSITION_BITS) | start);
+			}
+		}
+	}
+
+	/**
+	 * Read a binary hash file.  
+	 * Records without normalized minhash (e.g. created by GitCodeHash) are skipped.
+	 */
+	private void readBinary(File f) throws IOException {
+		BinaryHashReader reader = new BinaryHashReader(f);
+		int source = addSource(f, reader);
+		long skipped = 0;
+		for (long i=0; i<reader.getCount(); i++) {
+			byte[] bits = reader.getMinhash(i);
+			byte[] normalizedBits = reader.getNormalizedMinhash(i);
+			if (bits == null || normalizedBits == null) {
+				skipped++;
+				continue;
+			}
+			add(reader.getCodehash(i), bits, normalizedBits, reader.getLang(i).name(), 
+					reader.getTokenCount(i), reader.getNgramCount(i), ((long)source << POSITION_BITS) | i);
+		}
+		if (skipped > 0) {
+			System.err.println(skipped + " records without normalized minhash are skipped in " + f.getAbsolutePath());
+		}
+	}
+	
+	private void add(byte[] codehashBytes, byte[] bits, byte[] normalizedBits, String langName, int tokens, int ngrams, long loc) throws IOException {
+		if (size == ngramCount.length) {
+			ngramCount = Arrays.copyOf(ngramCount, size * 2);
+			tokenLength = Arrays.copyOf(tokenLength, size * 2);
+			lang = Arrays.copyOf(lang, size * 2);
+			locator = Arrays.copyOf(locator, size * 2);
+		}
+		setWords(codehash, size, CODEHASH_WORDS, codehashBytes);
+		setWords(minhash, size, MINHASH_WORDS, bits);
+		setWords(normalizedMinhash, size, MINHASH_WORDS, normalizedBits);
+		int langIndex = languages.indexOf(langName);
+		if (langIndex < 0) {
+			languages.add(langName);
+			langIndex = languages.size() - 1;
+		}
+		lang[size] = (byte)langIndex;
+		ngramCount[size] = ngrams;
+		tokenLength[size] = tokens;
+		locator[size] = loc;
+		size++;
+		uniqueEntries = null;
+	}
+	
+	/**
+	 * Store bytes as little-endian long values, in the same bit order as BitSet.valueOf(byte[]).
+	 */
+	private static void setWords(MappedLongArray array, int index, int words, byte[] bytes) throws IOException {
+		long base = (long)index * words;
+		array.ensureCapacity(base + words);
+		for (int w=0; w<words; w++) {
+			long value = 0;
+			for (int b=0; b<8; b++) {
+				int k = w * 8 + b;
+				if (k < bytes.length) value |= (bytes[k] & 0xFFL) << (8 * b);
+			}
+			array.set(base + w, value);
+		}
+	}
+	
+	/**
+	 * @return the number of entries including duplicated files.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Entries are grouped by codehash values.
+	 * The first entry of each group represents the group.
+	 * @return the indices of representative entries sorted by the number of N-grams.
+	 * Entries having the same number of N-grams are sorted by their indices.  
+	 */
+	public int[] getUniqueEntries() {
+		if (uniqueEntries == null) {
+			groupByCodehash();
+		}
+		return uniqueEntries;
+	}
+	
+	private void groupByCodehash() {
+		// Sort entries by 32 bits of codehash.  Entries are compared in detail only if they have the same bits.
+		long[] keys = new long[size];
+		for (int i=0; i<size; i++) {
+			keys[i] = (codehash.get((long)i * CODEHASH_WORDS) & 0xFFFFFFFF00000000L) | i;
+		}
+		Arrays.sort(keys);
+
+		nextDuplicate = new int[size];
+		Arrays.fill(nextDuplicate, -1);
+		int[] last = new int[size];
+		long[] representatives = new long[size];
+		int count = 0;
+		int[] runRepresentatives = new int[16];
+		int start = 0;
+		while (start < size) {
+			int end = start + 1;
+			while (end < size && (keys[end] >>> 32) == (keys[start] >>> 32)) end++;
+
+			// Entries in a run are sorted by their indices 
+			int runCount = 0;
+			for (int p=start; p<end; p++) {
+				int i = (int)keys[p];
+				int rep = -1;
+				for (int r=0; r<runCount; r++) {
+					if (isSameCodehash(runRepresentatives[r], i)) {
+						rep = runRepresentatives[r];
+						break;
+					}
+				}
+				if (rep < 0) {
+					if (runCount == runRepresentatives.length) runRepresentatives = Arrays.copyOf(runRepresentatives, runCount * 2);
+					runRepresentatives[runCount++] = i;
+					last[i] = i;
+					representatives[count++] = ((long)ngramCount[i] << 32) | i;
+				} else {
+					nextDuplicate[last[rep]] = i;
+					last[rep] = i;
+				}
+			}
+			start = end;
+		}
+		
+		Arrays.sort(representatives, 0, count);
+		uniqueEntries = new int[count];
+		for (int i=0; i<count; i++) {
+			uniqueEntries[i] = (int)representatives[i];
+		}
+	}
+	
+	private boolean isSameCodehash(int i, int j) {
+		for (int w=0; w<CODEHASH_WORDS; w++) {
+			if (codehash.get((long)i * CODEHASH_WORDS + w) != codehash.get((long)j * CODEHASH_WORDS + w)) return false;
+		}
+		return true;
+	}
+
+	public int getTokenLength(int index) {
+		return tokenLength[index];
+	}
+	
+	public boolean isSameLanguage(int i, int j) {
+		return lang[i] == lang[j];
+	}
+	
+	/**
+	 * @return the upper bound of similarity computed from the numbers of N-grams.
+	 */
+	public double getMaxSimilarity(int i, int j) {
+		return Math.min(ngramCount[i], ngramCount[j]) * 1.0 / Math.max(ngramCount[i], ngramCount[j]);
+	}
+	
+	public double estimateSimilarity(int i, int j) {
+		return estimateSimilarity(minhash, i, j);
+	}
+
+	public double estimateNormalizedSimilarity(int i, int j) {
+		return estimateSimilarity(normalizedMinhash, i, j);
+	}
+	
+	private double estimateSimilarity(MappedLongArray vectors, int i, int j) {
+		if (lang[i] != lang[j]) return 0;
+		return toSimilarity(i, j, hammingDistance(vectors, i, j, Integer.MAX_VALUE));
+	}
+	
+	/**
+	 * @return the hamming distance between normalized minhash vectors.
+	 * A value greater than the bound is returned if the distance exceeds the bound. 
+	 */
+	public int getNormalizedDistance(int i, int j, int bound) {
+		return hammingDistance(normalizedMinhash, i, j, bound);
+	}
+	
+	/**
+	 * @param differentBitCount is the hamming distance between minhash vectors of the entries.
+	 * @return the estimated similarity.
+	 */
+	public double toSimilarity(int i, int j, int differentBitCount) {
+		double sim = 1 - (differentBitCount * 1.0 / (MINHASH_WORDS * 64 / 2));
+		return Math.min(sim, getMaxSimilarity(i, j));
+	}
+	
+	private static int hammingDistance(MappedLongArray vectors, int i, int j, int bound) {
+		long base1 = (long)i * MINHASH_WORDS;
+		long base2 = (long)j * MINHASH_WORDS;
+		int distance = 0;
+		for (int w=0; w<MINHASH_WORDS; w++) {
+			distance += Long.bitCount(vectors.get(base1 + w) ^ vectors.get(base2 + w));
+			if (distance > bound) return distance;
+		}
+		return distance;
+	}
+	
+	/**
+	 * @return a hex string of the codehash of an entry.
+	 */
+	public String getCodehash(int index) {
+		byte[] bytes = new byte[20];
+		for (int k=0; k<bytes.length; k++) {
+			long word = codehash.get((long)index * CODEHASH_WORDS + k / 8);
+			bytes[k] = (byte)(word >>> (8 * (k % 8)));
+		}
+		return HashStringUtil.bytesToHex(bytes);
+	}
+	
+	/**
+	 * @return the paths of the files having the same codehash as a representative entry.  
+	 */
+	public ArrayList<String> getPaths(int representative) throws IOException {
+		getUniqueEntries();
+		ArrayList<String> paths = new ArrayList<>();
+		for (int i=representative; i>=0; i=nextDuplicate[i]) {
+			paths.add(getPath(i));
+		}
+		return paths;
+	}
+	
+	private String getPath(int index) throws IOException {
+		int source = (int)(locator[index] >>> POSITION_BITS);
+		long position = locator[index] & POSITION_MASK;
+		BinaryHashReader reader = binarySources.get(source);
+		if (reader != null) {
+			return reader.getPath(position);
+		} else {
+			return readTextPath(source, position);
+		}
+	}
+
+	/**
+	 * Read a file path at the beginning of a line in a TSV file.
+	 * This method is synchronized since a file is shared by threads.
+	 */
+	private synchronized String readTextPath(int source, long position) throws IOException {
+		if (textSources.length <= source) {
+			textSources = Arrays.copyOf(textSources, sources.size());
+		}
+		if (textSources[source] == null) {
+			textSources[source] = new RandomAccessFile(sources.get(source), "r");
+		}
+		RandomAccessFile f = textSources[source];
+		f.seek(position);
+		byte[] buf = new byte[256];
+		int length = 0;
+		while (true) {
+			if (length == buf.length) buf = Arrays.copyOf(buf, length * 2);
+			int n = f.read(buf, length, buf.length - length);
+			if (n < 0) break;
+			for (int k=length; k<length+n; k++) {
+				if (buf[k] == '\t') return new String(buf, 0, k, Charset.defaultCharset());
+			}
+			length += n;
+		}
+		return new String(buf, 0, length, Charset.defaultCharset());
+	}
+	
+	@Override
+	public void close() throws IOException {
+		minhash.close();
+		normalizedMinhash.close();
+		codehash.close();
+		for (BinaryHashReader reader: binarySources) {
+			if (reader != null) reader.close();
+		}
+		for (RandomAccessFile f: textSources) {
+			if (f != null) f.close();
+		}
+	}
+}
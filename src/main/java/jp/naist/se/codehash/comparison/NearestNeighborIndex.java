@@ -0,0 +1,299 @@
+package jp.naist.se.codehash.comparison;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * An index to find the k most similar entries for an entry.
+ * Similarity is the estimated similarity of normalized minhash vectors (MinHashEntry.toSimilarity),
+ * which is bounded by the ratio of N-gram counts.
+ *
+ * With LSH parameters, the index keeps the entry indices sorted by band keys for each band
+ * (4 bytes per entry per band), and compares a query only with entries sharing a band with it.
+ * Similar to LSHIndex, a result may miss an entry that does not share any band.
+ * If fewer than k entries share a band, the remaining results are found in the same way as an exact search,
+ * so that a query always returns k results unless fewer entries of the language are available.
+ * Without LSH parameters, the index compares a query with entries in the order of N-gram counts
+ * close to the query, and stops when the N-gram counts cannot achieve the k-th similarity.
+ * The result is exact in this mode.
+ *
+ * Results are ordered by similarity (descending) and then by index (ascending).
+ * A query method is not thread-safe.
+ */
+public class NearestNeighborIndex {
+
+	private List<MinHashEntry> entries;
+	private int bands;
+	private int rows;
+
+	/**
+	 * bandOrder[b] is a list of entry indices sorted by their keys of b-th band.
+	 */
+	private int[][] bandOrder;
+
+	/**
+	 * Entry indices sorted by N-gram counts, and the position of each entry in the list.
+	 */
+	private int[] sizeOrder;
+	private int[] sizePosition;
+
+	/**
+	 * visited[i] == queryId if i-th entry is already compared in the current query.
+	 */
+	private int[] visited;
+	private int queryId;
+
+	/**
+	 * Create an index for an exact search.
+	 * @param entries specifies a list of entries.  An index of the list identifies an entry.
+	 */
+	public NearestNeighborIndex(List<MinHashEntry> entries) {
+		this.entries = entries;
+		this.visited = new int[entries.size()];
+		Integer[] positions = new Integer[entries.size()];
+		for (int i=0; i<positions.length; i++) {
+			positions[i] = i;
+		}
+		Arrays.sort(positions, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return NearestNeighborIndex.this.entries.get(o1).compareTo(NearestNeighborIndex.this.entries.get(o2));
+			}
+		});
+		sizeOrder = new int[positions.length];
+		sizePosition = new int[positions.length];
+		for (int p=0; p<positions.length; p++) {
+			sizeOrder[p] = positions[p];
+			sizePosition[positions[p]] = p;
+		}
+	}
+
+	/**
+	 * Create an index using locality-sensitive hashing.
+	 * @param entries specifies a list of entries.  An index of the list identifies an entry.
+	 * @param bands specifies the number of bands.
+	 * @param rows specifies the number of bits in a band (1-32).
+	 */
+	public NearestNeighborIndex(List<MinHashEntry> entries, int bands, int rows) {
+		this(entries);
+		if (!LSHIndex.isValid(bands, rows)) throw new IllegalArgumentException("Invalid LSH parameters: " + bands + "x" + rows);
+		this.bands = bands;
+		this.rows = rows;
+		int n = entries.size();
+		long[] keys = new long[n];
+		bandOrder = new int[bands][];
+		for (int band=0; band<bands; band++) {
+			for (int i=0; i<n; i++) {
+				keys[i] = ((long)entries.get(i).getNormalizedBandKey(band * rows, rows) << 32) | i;
+			}
+			Arrays.sort(keys);
+			bandOrder[band] = new int[n];
+			for (int p=0; p<n; p++) {
+				bandOrder[band][p] = (int)keys[p];
+			}
+		}
+	}
+
+	/**
+	 * Find the k most similar entries of the same language as an entry.
+	 * The entry itself is excluded.
+	 * @param queryIndex specifies an entry in the list.
+	 * @param k specifies the maximum number of results.
+	 * @return neighbors in the descending order of similarity.
+	 */
+	public List<Neighbor> query(int queryIndex, int k) {
+		MinHashEntry q = entries.get(queryIndex);
+		if (++queryId == 0) {
+			Arrays.fill(visited, 0);
+			queryId = 1;
+		}
+		visited[queryIndex] = queryId;
+		TopK top = new TopK(q, k);
+		if (k > 0) {
+			if (bandOrder != null) {
+				queryBands(q, top);
+			}
+			// Entries compared by queryBands are skipped
+			if (!top.isFull()) {
+				querySizes(queryIndex, top);
+			}
+		}
+		return top.toList();
+	}
+
+	/**
+	 * Compare a query with entries sharing a band.
+	 */
+	private void queryBands(MinHashEntry q, TopK top) {
+		for (int band=0; band<bands; band++) {
+			int key = q.getNormalizedBandKey(band * rows, rows);
+			int[] order = bandOrder[band];
+			// Find the first entry having the key
+			int low = 0;
+			int high = order.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (getBandKey(order[mid], band) < key) low = mid + 1;
+				else high = mid;
+			}
+			for (int p=low; p<order.length && getBandKey(order[p], band) == key; p++) {
+				compare(order[p], top);
+			}
+		}
+	}
+
+	private int getBandKey(int index, int band) {
+		return entries.get(index).getNormalizedBandKey(band * rows, rows);
+	}
+
+	/**
+	 * Compare a query with entries in the order of N-gram counts close to the query.
+	 */
+	private void querySizes(int queryIndex, TopK top) {
+		MinHashEntry q = entries.get(queryIndex);
+		int smaller = sizePosition[queryIndex] - 1;
+		int larger = sizePosition[queryIndex] + 1;
+		while (smaller >= 0 || larger < sizeOrder.length) {
+			// Select an entry whose N-gram count is closer to the query
+			double maxSmaller = smaller >= 0 ? q.getMaxSimilairty(entries.get(sizeOrder[smaller])) : -1;
+			double maxLarger = larger < sizeOrder.length ? q.getMaxSimilairty(entries.get(sizeOrder[larger])) : -1;
+			double maxSim;
+			int index;
+			if (maxSmaller >= maxLarger || Double.isNaN(maxSmaller)) {
+				maxSim = maxSmaller;
+				index = sizeOrder[smaller--];
+			} else {
+				maxSim = maxLarger;
+				index = sizeOrder[larger++];
+			}
+			// The remaining entries cannot be better than the k-th entry
+			if (top.isFull() && maxSim < top.getMinSimilarity()) break;
+			compare(index, top);
+		}
+	}
+
+	/**
+	 * Compare a query with an entry and add it to the results if it is one of the top k.
+	 */
+	private void compare(int index, TopK top) {
+		if (visited[index] == queryId) return;
+		visited[index] = queryId;
+		MinHashEntry q = top.getQuery();
+		MinHashEntry e = entries.get(index);
+		if (!q.isSameLanguage(e)) return;
+		if (top.isFull()) {
+			// The N-gram counts and the distance bound the similarity
+			double minSim = top.getMinSimilarity();
+			if (!(q.getMaxSimilairty(e) >= minSim)) return;
+			int bound = (int)((1 - minSim) * (q.getBitCount() / 2)) + 1;
+			int distance = q.getNormalizedDistance(e, bound);
+			if (distance > bound) return;
+			top.add(index, q.toSimilarity(e, distance));
+		} else {
+			double sim = q.toSimilarity(e, q.getNormalizedDistance(e, Integer.MAX_VALUE));
+			// Similarity is undefined (NaN) for a pair of files without N-grams
+			if (!Double.isNaN(sim)) top.add(index, sim);
+		}
+	}
+
+	/**
+	 * An entry found by a query.
+	 */
+	public static class Neighbor {
+
+		private int index;
+		private double similarity;
+
+		public Neighbor(int index, double similarity) {
+			this.index = index;
+			this.similarity = similarity;
+		}
+
+		/**
+		 * @return the index of the entry in the list.
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * @return the estimated similarity with normalization.
+		 */
+		public double getSimilarity() {
+			return similarity;
+		}
+
+		/**
+		 * @return true if this neighbor precedes another in the results.
+		 */
+		private boolean isBetterThan(Neighbor another) {
+			if (this.similarity != another.similarity) return this.similarity > another.similarity;
+			return this.index < another.index;
+		}
+	}
+
+	/**
+	 * A bounded heap keeping the k best neighbors.  The worst one is at the top.
+	 */
+	private static class TopK {
+
+		private MinHashEntry query;
+		private int k;
+		private PriorityQueue<Neighbor> heap;
+
+		public TopK(MinHashEntry query, int k) {
+			this.query = query;
+			this.k = k;
+			this.heap = new PriorityQueue<>(Math.max(1, k), new Comparator<Neighbor>() {
+				@Override
+				public int compare(Neighbor o1, Neighbor o2) {
+					if (o1.isBetterThan(o2)) return 1;
+					if (o2.isBetterThan(o1)) return -1;
+					return 0;
+				}
+			});
+		}
+
+		public MinHashEntry getQuery() {
+			return query;
+		}
+
+		public boolean isFull() {
+			return heap.size() >= k;
+		}
+
+		/**
+		 * @return the similarity of the k-th neighbor.
+		 */
+		public double getMinSimilarity() {
+			return heap.peek().getSimilarity();
+		}
+
+		public void add(int index, double similarity) {
+			Neighbor n = new Neighbor(index, similarity);
+			if (heap.size() < k) {
+				heap.add(n);
+			} else if (n.isBetterThan(heap.peek())) {
+				heap.poll();
+				heap.add(n);
+			}
+		}
+
+		public List<Neighbor> toList() {
+			ArrayList<Neighbor> result = new ArrayList<>(heap);
+			Collections.sort(result, new Comparator<Neighbor>() {
+				@Override
+				public int compare(Neighbor o1, Neighbor o2) {
+					if (o1.isBetterThan(o2)) return -1;
+					if (o2.isBetterThan(o1)) return 1;
+					return 0;
+				}
+			});
+			return result;
+		}
+	}
+}
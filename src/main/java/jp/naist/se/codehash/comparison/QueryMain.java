@@ -0,0 +1,186 @@
+package jp.naist.se.codehash.comparison;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+public class QueryMain {
+
+	/**
+	 * An option to specify the number of similar files reported for a query, e.g. "-k:20".
+	 */
+	public static final String ARG_K = "-k:";
+
+	/**
+	 * An option to specify LSH parameters of the index, e.g. "-lsh:32x16".
+	 */
+	public static final String ARG_LSH = "-lsh:";
+
+	/**
+	 * An option to compare a query with all entries whose N-gram counts can achieve the top k similarity,
+	 * instead of using LSH.
+	 */
+	public static final String ARG_EXACT = "-exact";
+
+	public static final int DEFAULT_K = 20;
+
+	/**
+	 * Load minhash files and then answer top-k queries read from STDIN.
+	 * @param args specify options and a list of file names
+	 */
+	public static void main(String[] args) {
+		int k = DEFAULT_K;
+		int bands = LSHIndex.DEFAULT_BANDS;
+		int rows = LSHIndex.DEFAULT_ROWS;
+		ComparisonMain main = new ComparisonMain();
+		ArrayList<File> files = new ArrayList<>();
+		for (String arg: args) {
+			if (arg.startsWith(ARG_K)) {
+				String nString = arg.substring(ARG_K.length());
+				try {
+					k = Integer.parseInt(nString);
+					if (k < 1) {
+						System.err.println("k must be a positive integer: " + nString);
+						return;
+					}
+				} catch (NumberFormatException e) {
+					System.err.println("Invalid number: " + nString);
+					return;
+				}
+				continue;
+			} else if (arg.equals(ARG_EXACT)) {
+				bands = 0;
+				continue;
+			} else if (arg.startsWith(ARG_LSH)) {
+				String[] params = arg.substring(ARG_LSH.length()).split("x");
+				try {
+					bands = Integer.parseInt(params[0]);
+					rows = params.length > 1 ? Integer.parseInt(params[1]) : -1;
+				} catch (NumberFormatException e) {
+					rows = -1;
+				}
+				if (!LSHIndex.isValid(bands, rows)) {
+					System.err.println("Invalid LSH parameters: " + arg);
+					return;
+				}
+				continue;
+			}
+			File f = new File(arg);
+			if (f.exists() && f.isFile() && f.canRead()) {
+				files.add(f);
+			}
+		}
+
+		main.setSha1Index(true);
+		for (File f: files) {
+			main.read(f);
+		}
+		QueryMain query = new QueryMain(main, bands, rows);
+		System.err.println(main.getEntryCount() + " unique files indexed.");
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(System.in))) {
+			query.run(reader, System.out, k);
+		} catch (IOException e) {
+			System.err.println("Failed to read queries: " + e.getMessage());
+		}
+	}
+
+	private ComparisonMain main;
+	private List<MinHashEntry> entries;
+	private NearestNeighborIndex index;
+
+	/**
+	 * A map from a path, a SHA-1 hash, or a codehash to an entry index.
+	 */
+	private HashMap<String, Integer> keys;
+
+	/**
+	 * Create an index of entries loaded by a ComparisonMain object.
+	 * SHA-1 hashes of duplicated files are accepted as queries if ComparisonMain.setSha1Index is enabled.
+	 * @param bands specifies the number of LSH bands.  0 disables LSH.
+	 * @param rows specifies the number of bits in a band.
+	 */
+	public QueryMain(ComparisonMain main, int bands, int rows) {
+		this.main = main;
+		this.entries = main.getEntries();
+		this.index = bands > 0 ? new NearestNeighborIndex(entries, bands, rows) : new NearestNeighborIndex(entries);
+		this.keys = new HashMap<>();
+		for (int i=0; i<entries.size(); i++) {
+			MinHashEntry e = entries.get(i);
+			for (String filename: main.getFileNames(e.getCodehash())) {
+				keys.put(filename, i);
+			}
+			keys.put(e.getSha1(), i);
+			keys.put(e.getCodehash(), i);
+		}
+	}
+
+	/**
+	 * @return an entry index for a query.  Null if not found.
+	 */
+	private Integer find(String q) {
+		Integer i = keys.get(q);
+		if (i == null) {
+			// A SHA-1 hash of a duplicated file
+			String codehash = main.getCodehash(q);
+			if (codehash != null) i = keys.get(codehash);
+		}
+		return i;
+	}
+
+	/**
+	 * @return sorted file names of an entry.  The list of ComparisonMain is not modified.
+	 */
+	private String getFileNames(MinHashEntry e) {
+		ArrayList<String> filenames = new ArrayList<>(main.getFileNames(e.getCodehash()));
+		Collections.sort(filenames);
+		return String.join(",", filenames);
+	}
+
+	/**
+	 * Answer queries.  Each line is a query specifying a path, a SHA-1 hash, or a codehash of a file.
+	 * Results are printed in TSV format.  The output is flushed after each query.
+	 * @param k specifies the maximum number of similar files for a query.
+	 */
+	public void run(BufferedReader queries, PrintStream out, int k) throws IOException {
+		out.println("Query\tRank\tCodeHash\tTokenLength\tEstimatedSim\tEstimatedSimWithNormalization\tFileNames");
+		out.flush();
+		for (String line = queries.readLine(); line != null; line = queries.readLine()) {
+			String q = line.trim();
+			if (q.isEmpty()) continue;
+			Integer i = find(q);
+			if (i == null) {
+				System.err.println("Not found: " + q);
+				continue;
+			}
+			MinHashEntry e1 = entries.get(i);
+			int rank = 1;
+			StringBuilder buf = new StringBuilder();
+			for (NearestNeighborIndex.Neighbor n: index.query(i, k)) {
+				MinHashEntry e2 = entries.get(n.getIndex());
+				buf.append(q);
+				buf.append("\t");
+				buf.append(rank++);
+				buf.append("\t");
+				buf.append(e2.getCodehash());
+				buf.append("\t");
+				buf.append(e2.getTokenLength());
+				buf.append("\t");
+				buf.append(e1.estimateSimilarity(e2));
+				buf.append("\t");
+				buf.append(n.getSimilarity());
+				buf.append("\t");
+				buf.append(getFileNames(e2));
+				buf.append(System.lineSeparator());
+			}
+			out.print(buf.toString());
+			out.flush();
+		}
+	}
+
+}
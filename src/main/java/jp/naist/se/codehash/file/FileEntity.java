@@ -1,26 +1,39 @@
 package jp.naist.se.codehash.file;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import jp.naist.se.codehash.CodeHashTokenReader;
 import jp.naist.se.codehash.FileCodeHash;
 import jp.naist.se.codehash.FileType;
 import jp.naist.se.codehash.GitCodeHash;
 import jp.naist.se.codehash.HashStringUtil;
+import jp.naist.se.codehash.NgramMultiset;
+import jp.naist.se.codehash.NgramReader;
 import jp.naist.se.codehash.MurmurMinHash;
 import jp.naist.se.codehash.TokenReader;
+import jp.naist.se.codehash.TokenSequence;
 import jp.naist.se.codehash.comparison.MinHashEntry;
-import jp.naist.se.codehash.util.StringMultiset;
+import jp.naist.se.codehash.util.LongMultiset;
+import jp.naist.se.codehash.util.SortedLongMultiset;
+import jp.naist.se.codehash.util.TokenDictionary;
 
 public class FileEntity {
 		
-	private static int seqnum = 0;
+	/**
+	 * The next index of a file.  Indices are unique in a process.
+	 */
+	private static final AtomicInteger seqnum = new AtomicInteger();
+	
+	/**
+	 * Token IDs shared by all files so that their N-gram keys are comparable.
+	 */
+	private static final TokenDictionary dictionary = new TokenDictionary();
 	
 	private int index;
 	private String path;
@@ -32,10 +45,27 @@ public class FileEntity {
 	private String minhash;
 	private String normalizedMinhash;
 	private int ngramCount;
-	private StringMultiset ngrams;
-	private StringMultiset normalizedNgrams;
+	private SortedLongMultiset ngrams;
+	private SortedLongMultiset normalizedNgrams;
 	private MinHashEntry minhashEntry;
 	
+	/**
+	 * Tokens waiting for N-gram construction.  
+	 * They are discarded after the construction.
+	 */
+	private TokenSequence tokens;
+	
+	/**
+	 * The position of the file in a list of files to be loaded. 
+	 */
+	private int position;
+	
+	/**
+	 * A file having the same content as this file.  
+	 * If nonnull, this file shares the N-grams of the original file.
+	 */
+	private FileEntity original;
+	
 	/**
 	 * Create a FileEntity object from a File.
 	 * @param f specifies a file.  The content will be loaded.
@@ -45,12 +75,59 @@ public class FileEntity {
 	 * @return a created object.
 	 */
 	public static FileEntity parse(Path filePath, FileType enforceLanguage, int N) {
+		FileEntity e = tokenize(filePath, enforceLanguage);
+		if (e != null) {
+			e.setIndex(nextIndex());
+			e.registerTokens();
+			e.buildNgrams(N);
+		}
+		return e;
+	}
+	
+	/**
+	 * Create a FileEntity object whose N-grams are not constructed yet.
+	 * This method can be called by multiple threads.
+	 * registerTokens() and buildNgrams() must be called to complete the object. 
+	 * @param filePath specifies a file.  The content will be loaded.
+	 * @param enforceLanguage specifies a programming language.  
+	 * If null, the method automatically tries to recognize a programming language from the file extension.
+	 * @return a created object.  It is null if the file is not supported or unreadable.
+	 */
+	static FileEntity tokenize(Path filePath, FileType enforceLanguage) {
+		return tokenize(filePath, enforceLanguage, 0, null);
+	}
+	
+	/**
+	 * Create a FileEntity object whose N-grams are not constructed yet.
+	 * A file is not tokenized if a file having the same content precedes the file in a list.
+	 * Such a file must be linked to its original by setOriginal() instead of registerTokens() and buildNgrams().
+	 * This method can be called by multiple threads.
+	 * @param position specifies the position of the file in a list of files.
+	 * @param firstFiles records the first file for each content (a key is given by getContentKey()).  
+	 * If null, the file is always tokenized.
+	 * @return a created object.  It is null if the file is not supported or unreadable.
+	 */
+	static FileEntity tokenize(Path filePath, FileType enforceLanguage, int position, ConcurrentHashMap<String, FileEntity> firstFiles) {
 		String path = filePath.toAbsolutePath().toString();
 		FileType type = enforceLanguage != null ? enforceLanguage : FileType.getFileTypeFromName(path);
 		if (FileType.isSupported(type)) {
 			try {
 				byte[] content = Files.readAllBytes(filePath);
-				return new FileEntity(path, type, content, N);
+				String filehash = computeFileHash(content);
+				if (firstFiles == null || filehash == null) {
+					return new FileEntity(path, type, content, filehash, position);
+				}
+				String key = getContentKey(type, filehash);
+				FileEntity first = firstFiles.get(key);
+				if (first != null && first.position < position) {
+					return new FileEntity(path, type, content.length, filehash, position, first);
+				}
+				FileEntity e = new FileEntity(path, type, content, filehash, position);
+				while (true) {
+					first = firstFiles.putIfAbsent(key, e);
+					if (first == null || first.position < position || firstFiles.replace(key, first, e)) break;
+				}
+				return e;
 			} catch (IOException e) {
 				return null;
 			}
@@ -59,6 +136,23 @@ public class FileEntity {
 		}
 	}
 	
+	/**
+	 * @return a string identifying a file content in a language.
+	 */
+	static String getContentKey(FileType type, String filehash) {
+		return type.name() + ":" + filehash;
+	}
+	
+	private static String computeFileHash(byte[] content) {
+		try {
+			MessageDigest d = MessageDigest.getInstance(FileCodeHash.FILEHASH_ALGORITHM);
+			return HashStringUtil.bytesToHex(d.digest(content));
+		} catch (NoSuchAlgorithmException e) { 
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
 	/**
 	 * Construct a FileEntity object.
 	 * @param path specifies a file name.  The value is only used when writing a result.  
@@ -67,36 +161,129 @@ public class FileEntity {
 	 * @param N specifies the size of N-gram to compare files.
 	 */
 	public FileEntity(String path, FileType type, byte[] content, int N) {
+		this(path, type, content);
+		this.index = nextIndex();
+		registerTokens();
+		buildNgrams(N);
+	}
+
+	/**
+	 * Construct a FileEntity object whose N-grams are not constructed yet.
+	 */
+	private FileEntity(String path, FileType type, byte[] content) {
+		this(path, type, content, computeFileHash(content), 0);
+	}
+	
+	private FileEntity(String path, FileType type, byte[] content, String filehash, int position) {
 		assert type != null: "type must be nonnull";
 		
-		this.index = seqnum++;
 		this.path = path;
 		this.type = type;
 		this.byteLength = content.length;
-		try {
-			MessageDigest d = MessageDigest.getInstance(FileCodeHash.FILEHASH_ALGORITHM);
-			filehash = HashStringUtil.bytesToHex(d.digest(content));
-			TokenReader tokenReader = FileType.createReader(type, new ByteArrayInputStream(content));
-			CodeHashTokenReader wrapper = new CodeHashTokenReader(tokenReader, byteLength);
-			MurmurMinHash h = new MurmurMinHash(GitCodeHash.BBITMINHASH_BITCOUNT, N, wrapper);
-			minhash = HashStringUtil.bytesToHex(h.getHash());
-			normalizedMinhash = HashStringUtil.bytesToHex(h.getNormalizedHash());
-			codehash = HashStringUtil.bytesToHex(wrapper.getHash());
-			ngramCount = h.getNgramCount();
-			ngrams = h.getNgramMultiset();
-			normalizedNgrams = h.getNormalizedNgramMultiset();
-			tokenLength = tokenReader.getTokenCount();
+		this.filehash = filehash;
+		this.position = position;
+		TokenReader tokenReader = FileType.createReader(type, content);
+		CodeHashTokenReader wrapper = new CodeHashTokenReader(tokenReader, byteLength);
+		tokens = new TokenSequence(wrapper);
+		codehash = HashStringUtil.bytesToHex(wrapper.getHash());
+		tokenLength = tokenReader.getTokenCount();
+	}
+	
+	/**
+	 * Construct a FileEntity object for a file having the same content as another file.
+	 */
+	private FileEntity(String path, FileType type, int byteLength, String filehash, int position, FileEntity original) {
+		this.path = path;
+		this.type = type;
+		this.byteLength = byteLength;
+		this.filehash = filehash;
+		this.position = position;
+		this.codehash = original.codehash;
+		this.tokenLength = original.tokenLength;
+	}
+	
+	/**
+	 * @return a string identifying the content of this file.
+	 */
+	String getContentKey() {
+		return getContentKey(type, filehash);
+	}
+	
+	/**
+	 * Use the N-grams of a file having the same content instead of tokens of this file.
+	 * copyNgrams() must be called after the N-grams of the original file are constructed. 
+	 */
+	void setOriginal(FileEntity original) {
+		this.original = original;
+		this.tokens = null;
+	}
+	
+	/**
+	 * Share N-gram multisets and minhash of the original file.
+	 */
+	void copyNgrams() {
+		codehash = original.codehash;
+		tokenLength = original.tokenLength;
+		minhash = original.minhash;
+		normalizedMinhash = original.normalizedMinhash;
+		ngrams = original.ngrams;
+		normalizedNgrams = original.normalizedNgrams;
+		ngramCount = original.ngramCount;
+		original = null;
 
-			minhashEntry = new MinHashEntry(path, filehash, getLanguageName(), codehash, minhash, normalizedMinhash, byteLength, tokenLength, ngramCount);
-		} catch (NoSuchAlgorithmException e) { 
-			e.printStackTrace();
-		}
+		minhashEntry = new MinHashEntry(path, filehash, getLanguageName(), codehash, minhash, normalizedMinhash, byteLength, tokenLength, ngramCount);
 	}
 	
+	/**
+	 * Assign IDs to the tokens of this file.
+	 * Since IDs are assigned in the order of registration, 
+	 * files are registered in a fixed order to obtain the same N-gram keys.
+	 */
+	void registerTokens() {
+		tokens.register(dictionary);
+	}
+	
+	/**
+	 * Construct N-gram multisets and minhash from the registered tokens.
+	 * This method can be called by multiple threads for different files.
+	 * @param N specifies the size of N-gram to compare files.
+	 */
+	void buildNgrams(int N) {
+		// N-gram strings are used only for the same minhash as FileCodeHash, and then discarded
+		NgramMultiset h = new NgramMultiset(new NgramReader(N, tokens.getReader(), dictionary), true);
+		MurmurMinHash m = new MurmurMinHash(GitCodeHash.BBITMINHASH_BITCOUNT, h);
+		minhash = HashStringUtil.bytesToHex(m.getHash());
+		normalizedMinhash = HashStringUtil.bytesToHex(m.getNormalizedHash());
+		LongMultiset regularKeys = h.getRegularKeys();
+		LongMultiset normalizedKeys = h.getNormalizedKeys();
+		// Sorted arrays are smaller than hash tables and faster to intersect
+		ngrams = new SortedLongMultiset(regularKeys);
+		normalizedNgrams = new SortedLongMultiset(normalizedKeys);
+		ngramCount = h.getNgramCount();
+		tokens = null;
+
+		minhashEntry = new MinHashEntry(path, filehash, getLanguageName(), codehash, minhash, normalizedMinhash, byteLength, tokenLength, ngramCount);
+	}
+	
+	/**
+	 * @return a new index for a file.
+	 */
+	static int nextIndex() {
+		return seqnum.getAndIncrement();
+	}
+	
+	/**
+	 * @return the index of the file.  
+	 * Indices are assigned in the order of creation (or registration by FileGroup) and unique in a process.
+	 */
 	public int getIndex() {
 		return index;
 	}
 	
+	void setIndex(int index) {
+		this.index = index;
+	}
+	
 	public String getPath() {
 		return path;
 	}
@@ -133,22 +320,18 @@ public class FileEntity {
 		return ngramCount;
 	}
 	
-	public Set<String> getNgrams() {
-		return ngrams.keySet();
-	}
-
-	public Set<String> getNormalizedNgrams() {
-		return normalizedNgrams.keySet();
-	}
-
-	public StringMultiset getNgramMultiset() {
+	public SortedLongMultiset getNgramMultiset() {
 		return ngrams;
 	}
 
-	public StringMultiset getNormalizedNgramMultiset() {
+	public SortedLongMultiset getNormalizedNgramMultiset() {
 		return normalizedNgrams;
 	}
 	
+	public MinHashEntry getMinHashEntry() {
+		return minhashEntry;
+	}
+	
 	public double estimateNormalizedSimilarity(FileEntity another) {
 		return this.minhashEntry.estimateNormalizedSimilarity(another.minhashEntry);
 	}
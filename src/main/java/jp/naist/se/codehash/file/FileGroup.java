@@ -7,12 +7,28 @@ import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import jp.naist.se.codehash.FileType;
 
 public class FileGroup {
 		
+	/**
+	 * The number of files per thread tokenized ahead of the dictionary registration.
+	 * This bounds the number of token sequences kept in memory.
+	 */
+	private static final int TASKS_PER_THREAD = 64;
+	
 	private String groupId;
 	private ArrayList<Path> filePaths;
 	private ArrayList<FileEntity> fileEntities;
@@ -57,12 +73,131 @@ public class FileGroup {
 		
 	}
 	
+	/**
+	 * Load the files in this group.  
+	 * The files are indexed in order, following the files loaded before.
+	 */
 	public void loadEntities(FileType enforceLanguage, int N) {
-		this.fileEntities = new ArrayList<>(filePaths.size()); 
-		for (Path path: filePaths) {
-			FileEntity e = FileEntity.parse(path, enforceLanguage, N);
-			if (e != null) {
-				fileEntities.add(e);
+		loadEntities(Collections.singletonList(this), enforceLanguage, N, 1);
+	}
+	
+	/**
+	 * Load the files in the groups.
+	 * Files are read and tokenized in parallel, while their tokens are registered to a dictionary 
+	 * in the order of groups and files.  
+	 * Hence, the resultant indices and minhash values are the same for any number of threads. 
+	 * A file having the same content and language as a preceding file is not tokenized;  
+	 * it shares the N-gram multisets and minhash of the preceding file.
+	 * @param groups specifies groups to be loaded.  
+	 * The files are indexed in the iteration order of the groups, following the files loaded before.
+	 * The first file in a process is indexed 0.
+	 * @param enforceLanguage specifies a programming language.  
+	 * If null, a programming language is recognized from the file extension.
+	 * @param N specifies the size of N-gram to compare files.
+	 * @param threads specifies the number of threads.
+	 */
+	public static void loadEntities(Collection<FileGroup> groups, final FileType enforceLanguage, final int N, int threads) {
+		ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+		try {
+			Loader loader = new Loader(executor, N);
+			final ConcurrentHashMap<String, FileEntity> firstFiles = new ConcurrentHashMap<>();
+			int position = 0;
+			ArrayDeque<Future<FileEntity>> pending = new ArrayDeque<>();
+			ArrayDeque<FileGroup> pendingGroups = new ArrayDeque<>();
+			for (FileGroup g: groups) {
+				g.fileEntities = new ArrayList<>(g.filePaths.size());
+				for (final Path path: g.filePaths) {
+					final int p = position++;
+					if (executor == null) {
+						loader.register(FileEntity.tokenize(path, enforceLanguage, p, firstFiles), g);
+						continue;
+					}
+					pending.add(executor.submit(new Callable<FileEntity>() {
+						@Override
+						public FileEntity call() {
+							return FileEntity.tokenize(path, enforceLanguage, p, firstFiles);
+						}
+					}));
+					pendingGroups.add(g);
+					if (pending.size() >= threads * TASKS_PER_THREAD) {
+						loader.register(pending.removeFirst().get(), pendingGroups.removeFirst());
+					}
+				}
+			}
+			while (!pending.isEmpty()) {
+				loader.register(pending.removeFirst().get(), pendingGroups.removeFirst());
+			}
+			loader.finish();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			if (executor != null) executor.shutdown();
+		}
+	}
+	
+	/**
+	 * Register tokenized files in order.
+	 */
+	private static class Loader {
+		
+		private ExecutorService executor;
+		private int N;
+		private HashMap<String, FileEntity> originals;
+		private ArrayList<FileEntity> duplicates;
+		private ArrayList<Future<?>> building;
+		
+		public Loader(ExecutorService executor, int N) {
+			this.executor = executor;
+			this.N = N;
+			this.originals = new HashMap<>();
+			this.duplicates = new ArrayList<>();
+			this.building = new ArrayList<>();
+		}
+		
+		/**
+		 * Register the tokens of a tokenized file and construct its N-grams.
+		 * A file having the same content as a registered file is linked to the registered one.
+		 * Since the tokens of the registered file include the same tokens, 
+		 * the dictionary is the same as registering the tokens of every file.  
+		 * @param e is a tokenized file.  It may be null.
+		 */
+		public void register(final FileEntity e, FileGroup g) {
+			if (e == null) return;
+			e.setIndex(FileEntity.nextIndex());
+			g.fileEntities.add(e);
+			if (e.getFileHash() != null) {
+				FileEntity original = originals.get(e.getContentKey());
+				if (original != null) {
+					e.setOriginal(original);
+					duplicates.add(e);
+					return;
+				}
+				originals.put(e.getContentKey(), e);
+			}
+			e.registerTokens();
+			if (executor == null) {
+				e.buildNgrams(N);
+			} else {
+				building.add(executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						e.buildNgrams(N);
+					}
+				}));
+			}
+		}
+		
+		/**
+		 * Wait for the N-gram construction and complete duplicated files.
+		 */
+		public void finish() throws InterruptedException, ExecutionException {
+			for (Future<?> f: building) {
+				f.get();
+			}
+			for (FileEntity e: duplicates) {
+				e.copyNgrams();
 			}
 		}
 	}
@@ -0,0 +1,206 @@
+package jp.naist.se.codehash.util;
+
+import jp.naist.se.codehash.MurmurHash3;
+
+/**
+ * LongMultiset allows multiple instances of a long value.
+ * It is an open addressing hash table with linear probing 
+ * so that no object is allocated for each element.  
+ */
+public class LongMultiset {
+
+	private static final int MIN_CAPACITY = 16;
+	
+	private long[] keys;
+	private int[] counts;
+	private int mask;
+	private int keyCount;
+	private int size;
+	
+	/**
+	 * Create an empty multiset with a default initial capacity.
+	 */
+	public LongMultiset() {
+		this(128);
+	}
+
+	/**
+	 * Create an empty multiset.
+	 * @param capacity specifies the expected number of distinct values.
+	 */
+	public LongMultiset(int capacity) {
+		int tableSize = MIN_CAPACITY;
+		while (tableSize < capacity * 2) tableSize <<= 1;
+		keys = new long[tableSize];
+		counts = new int[tableSize];
+		mask = tableSize - 1;
+		keyCount = 0;
+		size = 0;
+	}
+	
+	private int slot(long key) {
+		return (int)MurmurHash3.fmix64(key) & mask;
+	}
+	
+	/**
+	 * @return the index of a slot for the key.  
+	 * The slot is empty (counts[index] == 0) if the key is not included.
+	 */
+	private int find(long key) {
+		int index = slot(key);
+		while (counts[index] != 0 && keys[index] != key) {
+			index = (index + 1) & mask;
+		}
+		return index;
+	}
+	
+	/**
+	 * Add a value to the multiset.
+	 * @param key to be added
+	 * @return the number of instances of the given value
+	 */
+	public int add(long key) {
+		return add(key, 1);
+	}
+	
+	/**
+	 * Add values to the multiset.
+	 * @param another contains values to be added
+	 * @return the number of values in the set
+	 */
+	public int add(LongMultiset another) {
+		for (int i=0; i<another.keys.length; i++) {
+			if (another.counts[i] != 0) {
+				add(another.keys[i], another.counts[i]);
+			}
+		}
+		return size;
+	}
+	
+	/**
+	 * Add instances of a value to the multiset.
+	 * @param key to be added
+	 * @param count specifies the number of instances (a positive value).
+	 * @return the number of instances of the given value
+	 */
+	private int add(long key, int count) {
+		int index = find(key);
+		if (counts[index] == 0) {
+			keys[index] = key;
+			keyCount++;
+			if (keyCount * 2 > keys.length) {
+				counts[index] = count;
+				size += count;
+				rehash(keys.length * 2);
+				return count;
+			}
+		}
+		counts[index] += count;
+		size += count;
+		return counts[index];
+	}
+	
+	private void rehash(int tableSize) {
+		long[] oldKeys = keys;
+		int[] oldCounts = counts;
+		keys = new long[tableSize];
+		counts = new int[tableSize];
+		mask = tableSize - 1;
+		for (int i=0; i<oldKeys.length; i++) {
+			if (oldCounts[i] != 0) {
+				int index = find(oldKeys[i]);
+				keys[index] = oldKeys[i];
+				counts[index] = oldCounts[i];
+			}
+		}
+	}
+	
+	/**
+	 * @return the number of values in the multiset. 
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @return the number of distinct values in the multiset. 
+	 */
+	public int keyCount() {
+		return keyCount;
+	}
+	
+	/**
+	 * @param key specifies a value.
+	 * @return the number of instances of the value.
+	 */
+	public int get(long key) {
+		return counts[find(key)];
+	}
+	
+	/**
+	 * @return a multiset removing duplicated elements. 
+	 * In other words, this.toOrdinarySet().get(v) == 1 for any value in this set.
+	 */
+	public LongMultiset toOrdinarySet() {
+		LongMultiset ordinary = new LongMultiset(keyCount);
+		for (int i=0; i<keys.length; i++) {
+			if (counts[i] != 0) {
+				ordinary.add(keys[i]);
+			}
+		}
+		return ordinary;
+	}
+
+	/**
+	 * This method looks up elements of the smaller multiset in the larger one.
+	 * @param another LongMultiset to be compared
+	 * @return the number of common instances in the two multisets 
+	 */
+	public int intersection(LongMultiset another) {
+		LongMultiset smaller = this;
+		LongMultiset larger = another;
+		if (another.keyCount < this.keyCount) {
+			smaller = another;
+			larger = this;
+		}
+		int count = 0;
+		for (int i=0; i<smaller.keys.length; i++) {
+			if (smaller.counts[i] != 0) {
+				count += Math.min(smaller.counts[i], larger.get(smaller.keys[i]));
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * @param another specifies a multiset to be subtracted from this object
+	 * @return difference between the multisets (this - another)
+	 */
+	public LongMultiset subtract(LongMultiset another) {
+		LongMultiset result = new LongMultiset(keyCount); 
+		for (int i=0; i<keys.length; i++) {
+			if (counts[i] != 0) {
+				int d = counts[i] - another.get(keys[i]);
+				if (d > 0) {
+					result.add(keys[i], d);
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * @return an array of distinct values in the multiset.  The order is unspecified.
+	 */
+	public long[] toKeyArray() {
+		long[] result = new long[keyCount];
+		int j = 0;
+		for (int i=0; i<keys.length; i++) {
+			if (counts[i] != 0) {
+				result[j++] = keys[i];
+			}
+		}
+		return result;
+	}
+	
+}
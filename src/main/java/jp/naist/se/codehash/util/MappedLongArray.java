@@ -0,0 +1,66 @@
+package jp.naist.se.codehash.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A growable array of long values stored outside of the Java heap.
+ * The values are stored in a memory-mapped temporary file, 
+ * which is divided into chunks because a mapped buffer is limited to 2GB.
+ * The file is deleted when the array is closed.
+ */
+public class MappedLongArray implements AutoCloseable {
+
+	/**
+	 * A chunk includes 2^24 values (128MB).
+	 */
+	public static final int CHUNK_BITS = 24;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+	
+	private File file;
+	private FileChannel channel;
+	private LongBuffer[] chunks = new LongBuffer[0];
+	
+	public MappedLongArray() throws IOException {
+		file = File.createTempFile("codehash", ".longs");
+		file.deleteOnExit();
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+	
+	/**
+	 * Map chunks of the file so that the array can store the specified number of values.
+	 */
+	public void ensureCapacity(long size) throws IOException {
+		while (((long)chunks.length << CHUNK_BITS) < size) {
+			long position = ((long)chunks.length << CHUNK_BITS) * 8;
+			LongBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE, position, (long)CHUNK_SIZE * 8).order(ByteOrder.nativeOrder()).asLongBuffer();
+			chunks = Arrays.copyOf(chunks, chunks.length + 1);
+			chunks[chunks.length - 1] = chunk;
+		}
+	}
+	
+	public long get(long index) {
+		return chunks[(int)(index >>> CHUNK_BITS)].get((int)(index & CHUNK_MASK));
+	}
+	
+	/**
+	 * Set a value.  The index must be less than the capacity ensured by ensureCapacity.
+	 */
+	public void set(long index, long value) {
+		chunks[(int)(index >>> CHUNK_BITS)].put((int)(index & CHUNK_MASK), value);
+	}
+	
+	@Override
+	public void close() throws IOException {
+		chunks = null;
+		channel.close();
+		file.delete();
+	}
+	
+}
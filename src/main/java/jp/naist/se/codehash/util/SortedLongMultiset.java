@@ -0,0 +1,121 @@
+package jp.naist.se.codehash.util;
+
+import java.util.Arrays;
+
+/**
+ * SortedLongMultiset is an immutable multiset of long values.
+ * Distinct values are stored in a sorted array with their counts,
+ * so that an intersection is computed by merging two arrays.
+ */
+public class SortedLongMultiset {
+
+	/**
+	 * If a multiset is this times larger than another,
+	 * the intersection searches elements of the larger one by galloping.
+	 */
+	private static final int GALLOP_RATIO = 16;
+
+	private long[] keys;
+	private int[] counts;
+	private int size;
+
+	/**
+	 * Create a sorted copy of a multiset.
+	 * @param mset specifies the content.
+	 */
+	public SortedLongMultiset(LongMultiset mset) {
+		keys = mset.toKeyArray();
+		Arrays.sort(keys);
+		counts = new int[keys.length];
+		for (int i=0; i<keys.length; i++) {
+			counts[i] = mset.get(keys[i]);
+		}
+		size = mset.size();
+	}
+
+	/**
+	 * @return the number of values in the multiset.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of distinct values in the multiset.
+	 */
+	public int keyCount() {
+		return keys.length;
+	}
+
+	/**
+	 * @param key specifies a value.
+	 * @return the number of instances of the value.
+	 */
+	public int get(long key) {
+		int index = Arrays.binarySearch(keys, key);
+		return index >= 0 ? counts[index] : 0;
+	}
+
+	/**
+	 * @param another SortedLongMultiset to be compared
+	 * @return the number of common instances in the two multisets
+	 */
+	public int intersection(SortedLongMultiset another) {
+		SortedLongMultiset smaller = this;
+		SortedLongMultiset larger = another;
+		if (another.keys.length < this.keys.length) {
+			smaller = another;
+			larger = this;
+		}
+		if ((long)smaller.keys.length * GALLOP_RATIO < larger.keys.length) {
+			return gallopingIntersection(smaller, larger);
+		}
+
+		long[] keys1 = smaller.keys;
+		long[] keys2 = larger.keys;
+		int i = 0;
+		int j = 0;
+		int count = 0;
+		while (i < keys1.length && j < keys2.length) {
+			long k1 = keys1[i];
+			long k2 = keys2[j];
+			if (k1 < k2) {
+				i++;
+			} else if (k1 > k2) {
+				j++;
+			} else {
+				count += Math.min(smaller.counts[i], larger.counts[j]);
+				i++;
+				j++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Search each element of the smaller multiset in the larger one,
+	 * doubling the step from the last matched position.
+	 */
+	private static int gallopingIntersection(SortedLongMultiset smaller, SortedLongMultiset larger) {
+		long[] keys2 = larger.keys;
+		int j = 0;
+		int count = 0;
+		for (int i=0; i<smaller.keys.length && j<keys2.length; i++) {
+			long key = smaller.keys[i];
+			// Find a range (j + step/2, j + step] including the key
+			int step = 1;
+			while (j + step < keys2.length && keys2[j + step] < key) {
+				step <<= 1;
+			}
+			int index = Arrays.binarySearch(keys2, j + (step >> 1), Math.min(j + step + 1, keys2.length), key);
+			if (index >= 0) {
+				count += Math.min(smaller.counts[i], larger.counts[index]);
+				j = index + 1;
+			} else {
+				j = -index - 1;
+			}
+		}
+		return count;
+	}
+
+}
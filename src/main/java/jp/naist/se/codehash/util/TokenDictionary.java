@@ -0,0 +1,59 @@
+package jp.naist.se.codehash.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TokenDictionary assigns an int ID to each distinct token text.
+ * The same dictionary must be used for N-grams to be compared with each other.
+ * This object is thread-safe.
+ */
+public class TokenDictionary {
+
+	/**
+	 * The ID representing an unavailable token (at the begin/end of a file).
+	 */
+	public static final int MISSING_TOKEN = 0;
+	
+	private ConcurrentHashMap<String, Integer> ids;
+	private AtomicInteger nextId;
+	
+	/**
+	 * Create an empty dictionary with a default initial capacity.
+	 */
+	public TokenDictionary() {
+		this(4096);
+	}
+
+	/**
+	 * Create an empty dictionary.
+	 * @param capacity specifies the initial capacity of an internal collection.
+	 */
+	public TokenDictionary(int capacity) {
+		ids = new ConcurrentHashMap<>(capacity);
+		nextId = new AtomicInteger(MISSING_TOKEN + 1);
+	}
+	
+	/**
+	 * @param token specifies a token text.
+	 * @return the ID of the token.  A new ID is assigned if the token is not registered yet.
+	 * MISSING_TOKEN is returned for null.
+	 */
+	public int getId(String token) {
+		if (token == null) return MISSING_TOKEN;
+		Integer id = ids.get(token);
+		if (id == null) {
+			Integer newId = nextId.getAndIncrement();
+			id = ids.putIfAbsent(token, newId);
+			if (id == null) id = newId;
+		}
+		return id;
+	}
+	
+	/**
+	 * @return the number of distinct tokens in the dictionary.
+	 */
+	public int size() {
+		return ids.size();
+	}
+}
@@ -0,0 +1,43 @@
+package jp.naist.se.codehash;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CodeHashDigestTest {
+
+	/**
+	 * The digest must be the same as the hash of concatenated tokens.
+	 */
+	@Test
+	public void testSameAsConcatenation() throws NoSuchAlgorithmException {
+		String[] tokens = { "int", "x", null, "=", "\"héllo\"", "あ", "😀", "\ud83d", "", "y", "\udc00;" };
+		CodeHashDigest digest = new CodeHashDigest();
+		StringBuilder builder = new StringBuilder();
+		for (String t: tokens) {
+			digest.update(t);
+			if (t != null) {
+				builder.append(t);
+				builder.append('\0');
+			}
+		}
+		byte[] expected = MessageDigest.getInstance("SHA-1").digest(builder.toString().getBytes());
+		Assert.assertArrayEquals(expected, digest.getHash());
+		Assert.assertArrayEquals(expected, digest.getHash());
+	}
+	
+	@Test
+	public void testLongToken() throws NoSuchAlgorithmException {
+		StringBuilder token = new StringBuilder();
+		for (int i=0; i<10000; i++) {
+			token.append((char)('a' + i % 26));
+		}
+		CodeHashDigest digest = new CodeHashDigest();
+		digest.update(token.toString());
+		token.append('\0');
+		byte[] expected = MessageDigest.getInstance("SHA-1").digest(token.toString().getBytes());
+		Assert.assertArrayEquals(expected, digest.getHash());
+	}
+}
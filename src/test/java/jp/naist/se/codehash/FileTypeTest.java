@@ -1,10 +1,26 @@
 package jp.naist.se.codehash;
 
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
 import org.junit.Assert;
 import org.junit.Test;
 
+
 public class FileTypeTest {
 
+	private static ArrayList<String> readTokens(FileType t, String content) {
+		TokenReader r = FileType.createReader(t, new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+		ArrayList<String> tokens = new ArrayList<>();
+		while (r.next()) {
+			tokens.add(r.getText() + "/" + r.getNormalizedText());
+		}
+		Assert.assertFalse(r.next());
+		return tokens;
+	}
+
 	@Test
 	public void testFileType() {
 		Assert.assertEquals(FileType.JAVA, FileType.getFileType("JAVA"));
@@ -13,4 +29,80 @@ public class FileTypeTest {
 		Assert.assertEquals(FileType.JAVA, FileType.getFileTypeFromName("MyClass.java"));
 		Assert.assertEquals(FileType.CPP, FileType.getFileTypeFromName("MyClass.cpp"));
 	}
+
+	@Test
+	public void testReusedLexer() {
+		String python = "def f(n):\n  if n:\n    return 1\n";
+		String js = "/a/.test(x); y = 1 / 2;";
+		ArrayList<String> pythonTokens = readTokens(FileType.PYTHON, python);
+		ArrayList<String> jsTokens = readTokens(FileType.ECMASCRIPT, js);
+
+		// A file ending inside a block leaves indentation in the lexer
+		readTokens(FileType.PYTHON, "class A:\n  def g(self):\n    pass");
+		Assert.assertEquals(pythonTokens, readTokens(FileType.PYTHON, python));
+		// The last token affects regular expressions
+		readTokens(FileType.ECMASCRIPT, "z = w");
+		Assert.assertEquals(jsTokens, readTokens(FileType.ECMASCRIPT, js));
+	}
+
+	@Test
+	public void testByteArrayReader() {
+		byte[][] contents = { 
+				"class A { String s = \"ascii\"; }".getBytes(StandardCharsets.UTF_8),
+				"class B { String s = \"\u3042\uD83D\uDE00\"; }".getBytes(StandardCharsets.UTF_8),
+				{ 'i', 'n', 't', ' ', (byte)0xC3, ' ', 'x', ';' } 
+		};
+		for (byte[] content: contents) {
+			TokenReader expected = FileType.createReader(FileType.JAVA, new ByteArrayInputStream(content));
+			TokenReader actual = FileType.createReader(FileType.JAVA, content);
+			while (expected.next()) {
+				Assert.assertTrue(actual.next());
+				Assert.assertEquals(expected.getText(), actual.getText());
+				Assert.assertEquals(expected.getCharPositionInLine(), actual.getCharPositionInLine());
+			}
+			Assert.assertFalse(actual.next());
+		}
+	}
+
+	@Test
+	public void testByteBufferReader() {
+		String java = "class A { int x; }";
+		ArrayList<String> expected = readTokens(FileType.JAVA, java);
+		byte[] content = ("garbage " + java + " garbage").getBytes(StandardCharsets.UTF_8);
+		byte[] nonAscii = ("\u3042\u3042 " + java + " garbage").getBytes(StandardCharsets.UTF_8);
+		int nonAsciiStart = nonAscii.length - java.length() - " garbage".length();
+
+		// A buffer having a position, and a sliced buffer having an array offset
+		ByteBuffer positioned = ByteBuffer.wrap(content, 8, java.length());
+		ByteBuffer sliced = ByteBuffer.wrap(content, 8, java.length()).slice();
+		ByteBuffer slicedNonAscii = ByteBuffer.wrap(nonAscii, nonAsciiStart, java.length()).slice();
+		for (ByteBuffer buf: new ByteBuffer[] { positioned, sliced, slicedNonAscii }) {
+			int position = buf.position();
+			TokenReader r = FileType.createReader(FileType.JAVA, buf);
+			ArrayList<String> tokens = new ArrayList<>();
+			while (r.next()) {
+				tokens.add(r.getText() + "/" + r.getNormalizedText());
+			}
+			Assert.assertEquals(expected, tokens);
+			Assert.assertEquals(position, buf.position());
+		}
+	}
+
+	@Test
+	public void testInterleavedReaders() {
+		String java = "class A { int x; }";
+		ArrayList<String> expected = readTokens(FileType.JAVA, java);
+
+		TokenReader r1 = FileType.createReader(FileType.JAVA, new ByteArrayInputStream(java.getBytes(StandardCharsets.UTF_8)));
+		TokenReader r2 = FileType.createReader(FileType.JAVA, new ByteArrayInputStream(java.getBytes(StandardCharsets.UTF_8)));
+		for (String token: expected) {
+			Assert.assertTrue(r1.next());
+			Assert.assertTrue(r2.next());
+			Assert.assertEquals(token, r1.getText() + "/" + r1.getNormalizedText());
+			Assert.assertEquals(token, r2.getText() + "/" + r2.getNormalizedText());
+		}
+		Assert.assertFalse(r1.next());
+		Assert.assertFalse(r2.next());
+	}
+
 }
@@ -7,6 +7,7 @@ import org.junit.Test;
 
 import jp.naist.se.codehash.sha1.SHA1MinHash;
 import jp.naist.se.codehash.util.StringMultiset;
+import jp.naist.se.codehash.util.TokenDictionary;
 
 public class MinHashTest {
 
@@ -82,6 +83,45 @@ public class MinHashTest {
 		}
 	}
 	
+	@Test
+	public void testMinhashWithNgramKeys() {
+		// N-grams collected with keys result in the same minhash as N-gram strings
+		MurmurMinHash h1 = new MurmurMinHash(MINHASH_BITCOUNT, NGRAM, new TestTokenReader(0, 100));
+		NgramMultiset ngrams = new NgramMultiset(new NgramReader(NGRAM, new TestTokenReader(0, 100), new TokenDictionary()), true);
+		MurmurMinHash h2 = new MurmurMinHash(MINHASH_BITCOUNT, ngrams);
+		Assert.assertArrayEquals(h1.getHash(), h2.getHash());
+		Assert.assertArrayEquals(h1.getNormalizedHash(), h2.getNormalizedHash());
+		Assert.assertEquals(ngrams.getRegular().size(), ngrams.getRegularKeys().size());
+	}
+	
+	@Test
+	public void testOnePermutationMinhash() {
+		TestTokenReader t1 = new TestTokenReader(0, 100);
+		OnePermutationMinHash h1 = new OnePermutationMinHash(MINHASH_BITCOUNT, NGRAM, t1);
+		TestTokenReader t2 = new TestTokenReader(0, 100);
+		OnePermutationMinHash h2 = new OnePermutationMinHash(MINHASH_BITCOUNT, NGRAM, t2);
+		Assert.assertArrayEquals(h1.getHash(), h2.getHash());
+		Assert.assertEquals(MINHASH_BITCOUNT / 8, h1.getHash().length);
+
+		StringMultiset ngrams1 = getNgramSet(0, 100);
+		Assert.assertEquals(ngrams1.size(), h1.getNgramCount());
+		for (int i=0; i<30; i++) {
+			for (int j=80; j<130; j++) {
+				// estimate similarity
+				TestTokenReader t3 = new TestTokenReader(i, j);
+				OnePermutationMinHash h3 = new OnePermutationMinHash(MINHASH_BITCOUNT, NGRAM, t3);
+				double estimated = estimateSimilarlity(h1.getHash(), h3.getHash());
+
+				// compute actual
+				StringMultiset ngrams3 = getNgramSet(i, j);
+				int intersection = ngrams1.intersection(ngrams3);
+				double actualSim = intersection * 1.0 / (ngrams1.size() + ngrams3.size() - intersection);
+
+				Assert.assertEquals(actualSim, estimated, 0.06);
+			}
+		}
+	}
+	
 	private StringMultiset getNgramSet(int i, int count) {
 		StringMultiset ngrams = new StringMultiset(count);
 		NgramReader r = new NgramReader(3, new TestTokenReader(i, count));
@@ -0,0 +1,73 @@
+package jp.naist.se.codehash;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import jp.naist.se.codehash.util.LongMultiset;
+import jp.naist.se.codehash.util.StringMultiset;
+import jp.naist.se.codehash.util.TokenDictionary;
+
+public class NgramMultisetTest {
+
+	private static final String SAMPLE = "int x; int y; int x = foo(); int x; int y;";
+
+	private static TokenReader createReader(String content) {
+		return FileType.createReader(FileType.CPP, new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+	}
+	
+	@Test
+	public void testDictionaryMode() {
+		NgramMultiset strings = new NgramMultiset(new NgramReader(3, createReader(SAMPLE)));
+		NgramMultiset keys = new NgramMultiset(new NgramReader(3, createReader(SAMPLE), new TokenDictionary()));
+		Assert.assertNull(keys.getRegular());
+		Assert.assertEquals(strings.getNgramCount(), keys.getNgramCount());
+		assertSameCounts(strings.getRegular(), keys.getRegularKeys());
+		assertSameCounts(strings.getNormalized(), keys.getNormalizedKeys());
+	}
+
+	@Test
+	public void testSharedDictionary() {
+		TokenDictionary dictionary = new TokenDictionary();
+		NgramMultiset first = new NgramMultiset(new NgramReader(3, createReader("int a = b;"), dictionary));
+		NgramMultiset second = new NgramMultiset(new NgramReader(3, createReader("long c; int a = b;"), dictionary));
+		// "int a =", "a = b", "= b ;" and the last two n-grams are shared; the first two are not
+		int shared = 0;
+		for (long key: first.getRegularKeys().toKeyArray()) {
+			if (second.getRegularKeys().get(key) > 0) shared++;
+		}
+		Assert.assertEquals(first.getRegularKeys().keyCount() - 2, shared);
+	}
+
+	@Test
+	public void testLongNgrams() {
+		NgramMultiset strings = new NgramMultiset(new NgramReader(5, createReader(SAMPLE)));
+		NgramMultiset keys = new NgramMultiset(new NgramReader(5, createReader(SAMPLE), new TokenDictionary()));
+		assertSameCounts(strings.getRegular(), keys.getRegularKeys());
+		assertSameCounts(strings.getNormalized(), keys.getNormalizedKeys());
+	}
+	
+	/**
+	 * Two multisets must have the same number of elements with the same multiplicities.
+	 */
+	private void assertSameCounts(StringMultiset expected, LongMultiset actual) {
+		Assert.assertEquals(expected.size(), actual.size());
+		Assert.assertEquals(expected.keySet().size(), actual.keyCount());
+		int[] expectedCounts = new int[expected.keySet().size()];
+		int i = 0;
+		for (String s: expected.keySet()) {
+			expectedCounts[i++] = expected.get(s);
+		}
+		int[] actualCounts = new int[actual.keyCount()];
+		i = 0;
+		for (long key: actual.toKeyArray()) {
+			actualCounts[i++] = actual.get(key);
+		}
+		Arrays.sort(expectedCounts);
+		Arrays.sort(actualCounts);
+		Assert.assertArrayEquals(expectedCounts, actualCounts);
+	}
+}
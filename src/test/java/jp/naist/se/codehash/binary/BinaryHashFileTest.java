@@ -0,0 +1,115 @@
+package jp.naist.se.codehash.binary;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import jp.naist.se.codehash.FileType;
+import jp.naist.se.codehash.HashRecord;
+
+public class BinaryHashFileTest {
+
+	private static byte[] bytes(int length, int seed) {
+		byte[] b = new byte[length];
+		for (int i=0; i<length; i++) {
+			b[i] = (byte)(i * 31 + seed);
+		}
+		return b;
+	}
+
+	@Test
+	public void testReadWrite() throws IOException {
+		File f = File.createTempFile("BinaryHashFileTest", ".bin");
+		try {
+			HashRecord r1 = new HashRecord("src/A.java", bytes(20, 1), FileType.JAVA, bytes(20, 2), bytes(256, 3), bytes(256, 4), 1234, 56, 58);
+			HashRecord r2 = new HashRecord(null, bytes(20, 5), FileType.PYTHON, bytes(20, 6), bytes(256, 7), null, 10, 2, -1);
+			HashRecord r3 = new HashRecord("テスト.c", bytes(20, 8), FileType.CPP, bytes(20, 9), null, null, 0, 0, 0);
+			StringBuilder longPath = new StringBuilder();
+			for (int i=0; i<100; i++) {
+				longPath.append("dir" + i + "/");
+			}
+			longPath.append("B.java");
+			HashRecord r4 = new HashRecord(longPath.toString(), bytes(20, 10), FileType.JAVA, bytes(20, 11), bytes(256, 12), bytes(256, 13), 100, 20, 18);
+			try (BinaryHashWriter w = new BinaryHashWriter(f)) {
+				w.write(r1);
+				w.write(r2);
+				w.write(r3);
+				w.write(r4, BinaryHashFormat.FLAG_IGNORE_DUPLICATION, 1234567890123L);
+			}
+			Assert.assertTrue(BinaryHashReader.isBinaryHashFile(f));
+			
+			try (BinaryHashReader reader = new BinaryHashReader(f)) {
+				Assert.assertEquals(4, reader.getCount());
+				Assert.assertEquals(0, reader.getLastModified(0));
+				Assert.assertEquals(1234567890123L, reader.getLastModified(3));
+				Assert.assertEquals(BinaryHashFormat.FLAG_MINHASH | BinaryHashFormat.FLAG_NORMALIZED_MINHASH | BinaryHashFormat.FLAG_IGNORE_DUPLICATION, reader.getFlags(3));
+				HashRecord[] expected = { r1, r2, r3, r4 };
+				for (int i=0; i<expected.length; i++) {
+					HashRecord actual = reader.getRecord(i);
+					Assert.assertEquals(expected[i].getPath(), actual.getPath());
+					Assert.assertArrayEquals(expected[i].getSha1(), actual.getSha1());
+					Assert.assertEquals(expected[i].getLang(), actual.getLang());
+					Assert.assertArrayEquals(expected[i].getCodehash(), actual.getCodehash());
+					Assert.assertArrayEquals(expected[i].getMinhash(), actual.getMinhash());
+					Assert.assertArrayEquals(expected[i].getNormalizedMinhash(), actual.getNormalizedMinhash());
+					Assert.assertEquals(expected[i].getFileLength(), actual.getFileLength());
+					Assert.assertEquals(expected[i].getTokenCount(), actual.getTokenCount());
+					Assert.assertEquals(expected[i].getNgramCount(), actual.getNgramCount());
+				}
+			}
+		} finally {
+			f.delete();
+		}
+	}
+
+	@Test
+	public void testReadPaths() throws IOException {
+		File f = File.createTempFile("BinaryHashFileTest", ".bin");
+		try {
+			// Paths exceed the buffer of readPaths
+			final ArrayList<String> paths = new ArrayList<>();
+			try (BinaryHashWriter w = new BinaryHashWriter(f)) {
+				for (int i=0; i<10000; i++) {
+					StringBuilder path = new StringBuilder("src/");
+					int depth = i % 1000 == 999 ? 10000 : i % 7;
+					for (int d=0; d<depth; d++) {
+						path.append("dir" + d + "/");
+					}
+					path.append("ファイル" + i + ".java");
+					String p = i % 10 == 3 ? null : path.toString();
+					paths.add(p);
+					w.write(new HashRecord(p, bytes(20, i), FileType.JAVA, bytes(20, i + 1), null, null, i, i, i));
+				}
+			}
+			try (final BinaryHashReader reader = new BinaryHashReader(f)) {
+				final int[] next = new int[1];
+				reader.readPaths(new BinaryHashReader.PathVisitor() {
+					@Override
+					public void visit(long index, String path) throws IOException {
+						while (paths.get(next[0]) == null) next[0]++;
+						Assert.assertEquals(next[0], index);
+						Assert.assertEquals(paths.get(next[0]), path);
+						Assert.assertEquals(reader.getPath(index), path);
+						next[0]++;
+					}
+				});
+				Assert.assertEquals(paths.size(), next[0]);
+			}
+		} finally {
+			f.delete();
+		}
+	}
+
+	@Test
+	public void testTextFile() throws IOException {
+		File f = File.createTempFile("BinaryHashFileTest", ".txt");
+		try {
+			Assert.assertFalse(BinaryHashReader.isBinaryHashFile(f));
+		} finally {
+			f.delete();
+		}
+	}
+}
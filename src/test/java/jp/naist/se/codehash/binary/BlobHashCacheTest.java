@@ -0,0 +1,124 @@
+package jp.naist.se.codehash.binary;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import jp.naist.se.codehash.FileType;
+import jp.naist.se.codehash.GitCodeHash.HashType;
+import jp.naist.se.codehash.HashRecord;
+
+public class BlobHashCacheTest {
+
+	private static byte[] bytes(int length, int seed) {
+		byte[] b = new byte[length];
+		for (int i=0; i<length; i++) {
+			b[i] = (byte)(i * 31 + seed);
+		}
+		return b;
+	}
+
+	@Test
+	public void testCache() throws IOException {
+		File f = File.createTempFile("BlobHashCacheTest", ".cache");
+		f.delete();
+		try {
+			HashRecord r1 = new HashRecord("A.java", bytes(20, 1), FileType.JAVA, bytes(20, 2), bytes(256, 3), null, 1234, 56, -1);
+			HashRecord r2 = new HashRecord("B.java", bytes(20, 4), FileType.JAVA, bytes(20, 5), null, null, 10, 2, -1);
+			try (BlobHashCache cache = new BlobHashCache(f)) {
+				Assert.assertNull(cache.get("A.java", bytes(20, 1), FileType.JAVA, HashType.Murmur3MinHash));
+				cache.put(r1, HashType.Murmur3MinHash);
+				cache.put(r2, HashType.CodeHash);
+				cache.put(r2, HashType.CodeHash);
+				Assert.assertEquals(2, cache.size());
+				Assert.assertNotNull(cache.get("A.java", bytes(20, 1), FileType.JAVA, HashType.Murmur3MinHash));
+			}
+
+			try (BlobHashCache cache = new BlobHashCache(f)) {
+				Assert.assertEquals(2, cache.size());
+				HashRecord r = cache.get("C.java", bytes(20, 1), FileType.JAVA, HashType.Murmur3MinHash);
+				Assert.assertEquals("C.java", r.getPath());
+				Assert.assertArrayEquals(r1.getSha1(), r.getSha1());
+				Assert.assertEquals(FileType.JAVA, r.getLang());
+				Assert.assertArrayEquals(r1.getCodehash(), r.getCodehash());
+				Assert.assertArrayEquals(r1.getMinhash(), r.getMinhash());
+				Assert.assertEquals(r1.getFileLength(), r.getFileLength());
+				Assert.assertEquals(r1.getTokenCount(), r.getTokenCount());
+
+				r = cache.get("B.java", bytes(20, 4), FileType.JAVA, HashType.CodeHash);
+				Assert.assertNull(r.getMinhash());
+				Assert.assertEquals(2, r.getTokenCount());
+
+				// A key includes a language and a hash type
+				Assert.assertNull(cache.get("A.java", bytes(20, 1), FileType.JAVA, HashType.SHA1MinHash));
+				Assert.assertNull(cache.get("A.cpp", bytes(20, 1), FileType.CPP, HashType.Murmur3MinHash));
+				Assert.assertNull(cache.get("A.java", bytes(20, 2), FileType.JAVA, HashType.Murmur3MinHash));
+			}
+		} finally {
+			f.delete();
+		}
+	}
+
+	@Test
+	public void testBrokenEntry() throws IOException {
+		File f = File.createTempFile("BlobHashCacheTest", ".cache");
+		f.delete();
+		try {
+			try (BlobHashCache cache = new BlobHashCache(f)) {
+				cache.put(new HashRecord("A.java", bytes(20, 1), FileType.JAVA, bytes(20, 2), bytes(256, 3), null, 1234, 56, -1), HashType.Murmur3MinHash);
+				cache.put(new HashRecord("B.java", bytes(20, 4), FileType.JAVA, bytes(20, 5), bytes(256, 6), null, 10, 2, -1), HashType.Murmur3MinHash);
+			}
+			long length = f.length();
+			try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+				raf.setLength(length - 10);
+			}
+			try (BlobHashCache cache = new BlobHashCache(f)) {
+				Assert.assertEquals(1, cache.size());
+				Assert.assertNotNull(cache.get("A.java", bytes(20, 1), FileType.JAVA, HashType.Murmur3MinHash));
+				Assert.assertNull(cache.get("B.java", bytes(20, 4), FileType.JAVA, HashType.Murmur3MinHash));
+				cache.put(new HashRecord("B.java", bytes(20, 4), FileType.JAVA, bytes(20, 5), bytes(256, 6), null, 10, 2, -1), HashType.Murmur3MinHash);
+			}
+			Assert.assertEquals(length, f.length());
+		} finally {
+			f.delete();
+		}
+	}
+
+	@Test
+	public void testLock() throws IOException {
+		File f = File.createTempFile("BlobHashCacheTest", ".cache");
+		f.delete();
+		try {
+			try (BlobHashCache cache = new BlobHashCache(f)) {
+				try {
+					new BlobHashCache(f).close();
+					Assert.fail();
+				} catch (IOException e) {
+					// The file is locked by the first cache
+				}
+				cache.put(new HashRecord("A.java", bytes(20, 1), FileType.JAVA, bytes(20, 2), null, null, 10, 2, -1), HashType.CodeHash);
+			}
+			try (BlobHashCache cache = new BlobHashCache(f)) {
+				Assert.assertEquals(1, cache.size());
+			}
+		} finally {
+			f.delete();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testInvalidFile() throws IOException {
+		File f = File.createTempFile("BlobHashCacheTest", ".txt");
+		try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+			raf.write("This is not a cache file.".getBytes());
+		}
+		try {
+			new BlobHashCache(f).close();
+		} finally {
+			f.delete();
+		}
+	}
+}
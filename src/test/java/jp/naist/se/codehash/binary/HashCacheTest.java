@@ -0,0 +1,79 @@
+package jp.naist.se.codehash.binary;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import jp.naist.se.codehash.FileType;
+import jp.naist.se.codehash.HashRecord;
+
+public class HashCacheTest {
+
+	private static byte[] bytes(int length, int seed) {
+		byte[] b = new byte[length];
+		for (int i=0; i<length; i++) {
+			b[i] = (byte)(i * 31 + seed);
+		}
+		return b;
+	}
+
+	@Test
+	public void testCache() throws IOException {
+		File f = File.createTempFile("HashCacheTest", ".cache");
+		f.delete();
+		try {
+			HashRecord r1 = new HashRecord("src/A.java", bytes(20, 1), FileType.JAVA, bytes(20, 2), bytes(256, 3), bytes(256, 4), 1234, 56, 58);
+			HashRecord r2 = new HashRecord("src/B.java", bytes(20, 5), FileType.JAVA, bytes(20, 6), bytes(256, 7), bytes(256, 8), 10, 2, 0);
+			try (HashCache cache = new HashCache(f)) {
+				Assert.assertNull(cache.get("src/A.java", 1234, 1000, 0));
+				cache.put(r1, 0, 1000);
+				cache.put(r2, BinaryHashFormat.FLAG_IGNORE_DUPLICATION, 0);
+			}
+			Assert.assertTrue(f.exists());
+
+			try (HashCache cache = new HashCache(f)) {
+				HashRecord r = cache.get("src/A.java", 1234, 1000, 0);
+				Assert.assertNotNull(r);
+				Assert.assertArrayEquals(r1.getSha1(), r.getSha1());
+				Assert.assertArrayEquals(r1.getMinhash(), r.getMinhash());
+				Assert.assertEquals(r1.getNgramCount(), r.getNgramCount());
+
+				// Changed attributes and options
+				Assert.assertNull(cache.get("src/A.java", 1234, 1001, 0));
+				Assert.assertNull(cache.get("src/A.java", 1235, 1000, 0));
+				Assert.assertNull(cache.get("src/A.java", 1234, 1000, BinaryHashFormat.FLAG_IGNORE_DUPLICATION));
+				Assert.assertNull(cache.get("src/C.java", 1234, 1000, 0));
+
+				// Unknown last modified time requires the content
+				Assert.assertNull(cache.get("src/B.java", 10, 0, BinaryHashFormat.FLAG_IGNORE_DUPLICATION));
+				Assert.assertNotNull(cache.get("src/B.java", bytes(20, 5), BinaryHashFormat.FLAG_IGNORE_DUPLICATION));
+				Assert.assertNull(cache.get("src/B.java", bytes(20, 6), BinaryHashFormat.FLAG_IGNORE_DUPLICATION));
+				Assert.assertNull(cache.get("src/B.java", bytes(20, 5), 0));
+				cache.put(r, 0, 1000);
+			}
+
+			// The cache includes only the records of the latest run
+			try (HashCache cache = new HashCache(f)) {
+				Assert.assertNotNull(cache.get("src/A.java", 1234, 1000, 0));
+				Assert.assertNull(cache.get("src/B.java", bytes(20, 5), BinaryHashFormat.FLAG_IGNORE_DUPLICATION));
+			}
+		} finally {
+			f.delete();
+		}
+	}
+
+	@Test
+	public void testInvalidFile() throws IOException {
+		File f = File.createTempFile("HashCacheTest", ".txt");
+		try {
+			try (HashCache cache = new HashCache(f)) {
+				Assert.assertNull(cache.get("src/A.java", 1234, 1000, 0));
+			}
+			Assert.assertTrue(BinaryHashReader.isBinaryHashFile(f));
+		} finally {
+			f.delete();
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package jp.naist.se.codehash.comparison;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+public class DirectComparisonMainTest {
+
+	/**
+	 * Create similar source files.
+	 */
+	private static File createFiles() throws IOException {
+		File dir = Files.createTempDirectory("DirectComparisonMainTest").toFile();
+		for (int i=0; i<30; i++) {
+			StringBuilder content = new StringBuilder();
+			content.append("class C" + (i % 4) + " {\n");
+			for (int m=0; m<10; m++) {
+				content.append("  int m" + m + "(int x) { return x * " + ((m * i) % 7) + "; }\n");
+			}
+			content.append("}\n");
+			Files.write(new File(dir, "F" + i + ".java").toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+		}
+		return dir;
+	}
+
+	private static void delete(File dir) {
+		for (File f: dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	/**
+	 * Record the content written before each flush.
+	 */
+	private static class FlushRecorder extends ByteArrayOutputStream {
+
+		private ArrayList<String> flushed = new ArrayList<>();
+
+		@Override
+		public void flush() {
+			flushed.add(new String(toByteArray(), StandardCharsets.UTF_8));
+		}
+	}
+
+	private static FlushRecorder run(File dir, String format) {
+		FlushRecorder out = new FlushRecorder();
+		new DirectComparisonMain(new String[] { "-thnj:0.3", format, dir.getAbsolutePath() }).run(out);
+		return out;
+	}
+
+	/**
+	 * Read the fields of an object.  The parser is at the start of the object.
+	 */
+	private static LinkedHashMap<String, String> readObject(JsonParser parser) throws IOException {
+		LinkedHashMap<String, String> fields = new LinkedHashMap<>();
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.getCurrentName();
+			parser.nextToken();
+			fields.put(name, parser.getText());
+		}
+		return fields;
+	}
+
+	private static List<LinkedHashMap<String, String>> readArray(JsonParser parser, String name) throws IOException {
+		Assert.assertEquals(JsonToken.FIELD_NAME, parser.nextToken());
+		Assert.assertEquals(name, parser.getCurrentName());
+		Assert.assertEquals(JsonToken.START_ARRAY, parser.nextToken());
+		ArrayList<LinkedHashMap<String, String>> result = new ArrayList<>();
+		while (parser.nextToken() == JsonToken.START_OBJECT) {
+			result.add(readObject(parser));
+		}
+		return result;
+	}
+
+	/**
+	 * Make file indices start with 0, since indices are unique in a process.
+	 */
+	private static void normalizeIndices(List<LinkedHashMap<String, String>> files, List<LinkedHashMap<String, String>> pairs) {
+		int base = Integer.MAX_VALUE;
+		for (LinkedHashMap<String, String> f: files) {
+			base = Math.min(base, Integer.parseInt(f.get("index")));
+		}
+		for (LinkedHashMap<String, String> f: files) {
+			f.put("index", Integer.toString(Integer.parseInt(f.get("index")) - base));
+		}
+		for (LinkedHashMap<String, String> p: pairs) {
+			p.put("index1", Integer.toString(Integer.parseInt(p.get("index1")) - base));
+			p.put("index2", Integer.toString(Integer.parseInt(p.get("index2")) - base));
+		}
+	}
+
+	@Test
+	public void testNdjson() throws IOException {
+		File dir = createFiles();
+		try {
+			JsonFactory factory = new JsonFactory();
+			String json = new String(run(dir, "-format:json").toByteArray(), StandardCharsets.UTF_8);
+			List<LinkedHashMap<String, String>> files;
+			List<LinkedHashMap<String, String>> pairs;
+			try (JsonParser parser = factory.createParser(json)) {
+				Assert.assertEquals(JsonToken.START_OBJECT, parser.nextToken());
+				files = readArray(parser, "Files");
+				pairs = readArray(parser, "Pairs");
+			}
+			normalizeIndices(files, pairs);
+			Assert.assertEquals(30, files.size());
+			Assert.assertTrue(pairs.size() > 0);
+
+			FlushRecorder out = run(dir, "-format:ndjson");
+			String ndjson = new String(out.toByteArray(), StandardCharsets.UTF_8);
+			List<LinkedHashMap<String, String>> ndjsonFiles = new ArrayList<>();
+			List<LinkedHashMap<String, String>> ndjsonPairs = new ArrayList<>();
+			for (String line: ndjson.split("\n")) {
+				try (JsonParser parser = factory.createParser(line)) {
+					Assert.assertEquals(JsonToken.START_OBJECT, parser.nextToken());
+					LinkedHashMap<String, String> record = readObject(parser);
+					Assert.assertNull(parser.nextToken());
+					String type = record.remove("type");
+					if (type.equals("file")) {
+						Assert.assertTrue(ndjsonPairs.isEmpty());
+						ndjsonFiles.add(record);
+					} else {
+						Assert.assertEquals("pair", type);
+						ndjsonPairs.add(record);
+					}
+				}
+			}
+			normalizeIndices(ndjsonFiles, ndjsonPairs);
+			Assert.assertEquals(files, ndjsonFiles);
+			Assert.assertEquals(pairs, ndjsonPairs);
+
+			// Records are flushed as complete lines: files, and then pairs of each row
+			Assert.assertTrue(out.flushed.size() > 2);
+			for (String s: out.flushed) {
+				Assert.assertTrue(s.isEmpty() || s.endsWith("\n"));
+			}
+			Assert.assertTrue(out.flushed.contains(ndjson.substring(0, ndjson.indexOf("{\"type\":\"pair\""))));
+			boolean partialPairs = false;
+			for (String s: out.flushed) {
+				if (s.contains("\"type\":\"pair\"") && s.length() < ndjson.length()) partialPairs = true;
+			}
+			Assert.assertTrue(partialPairs);
+		} finally {
+			delete(dir);
+		}
+	}
+}
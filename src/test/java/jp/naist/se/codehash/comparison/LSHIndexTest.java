@@ -0,0 +1,55 @@
+package jp.naist.se.codehash.comparison;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LSHIndexTest {
+
+	@Test
+	public void testCandidates() {
+		Random r = new Random(0);
+		List<MinHashEntry> entries = new ArrayList<>();
+		byte[] base = new byte[256];
+		r.nextBytes(base);
+		for (int i=0; i<50; i++) {
+			byte[] b = base.clone();
+			// Entries share most of bits with the base, so that many pairs collide in multiple bands 
+			for (int k=0; k<50; k++) {
+				int bit = r.nextInt(2048);
+				b[bit / 8] ^= 1 << (bit % 8);
+			}
+			if (i % 10 == 0) r.nextBytes(b);
+			entries.add(new MinHashEntry("f" + i, "s" + i, "JAVA", "c" + i, b, b, 100, 100, 100));
+		}
+
+		final HashSet<Long> pairs = new HashSet<>();
+		LSHIndex index = new LSHIndex(entries, LSHIndex.DEFAULT_BANDS, LSHIndex.DEFAULT_ROWS);
+		index.forEachCandidate(new LSHIndex.PairVisitor() {
+			@Override
+			public boolean visit(int i, int j) {
+				Assert.assertTrue(i < j);
+				// Each pair is reported once
+				Assert.assertTrue(pairs.add(((long)i << 32) | j));
+				return true;
+			}
+		});
+
+		// A pair is reported if and only if it shares a band
+		for (int i=0; i<entries.size(); i++) {
+			for (int j=i+1; j<entries.size(); j++) {
+				boolean shared = false;
+				for (int band=0; band<LSHIndex.DEFAULT_BANDS; band++) {
+					int from = band * LSHIndex.DEFAULT_ROWS;
+					shared |= entries.get(i).getNormalizedBandKey(from, LSHIndex.DEFAULT_ROWS) == entries.get(j).getNormalizedBandKey(from, LSHIndex.DEFAULT_ROWS);
+				}
+				Assert.assertEquals(shared, pairs.contains(((long)i << 32) | j));
+			}
+		}
+		Assert.assertTrue(pairs.size() > 0);
+	}
+}
@@ -0,0 +1,59 @@
+package jp.naist.se.codehash.comparison;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MinHashEntryTest {
+
+	private static byte[] randomBytes(Random r) {
+		byte[] b = new byte[256];
+		r.nextBytes(b);
+		return b;
+	}
+	
+	@Test
+	public void testSameAsBitSet() {
+		Random r = new Random(0);
+		for (int t=0; t<100; t++) {
+			byte[] b1 = randomBytes(r);
+			byte[] b2 = b1.clone();
+			for (int k=0; k<t * 5; k++) {
+				int bit = r.nextInt(2048);
+				b2[bit / 8] ^= 1 << (bit % 8);
+			}
+			MinHashEntry e1 = new MinHashEntry("a", "sha1", "JAVA", "c1", b1, b1, 100, 100, 100);
+			MinHashEntry e2 = new MinHashEntry("b", "sha1", "JAVA", "c2", b2, b2, 100, 100, 100);
+
+			BitSet s = BitSet.valueOf(b1);
+			s.xor(BitSet.valueOf(b2));
+			int expected = s.cardinality();
+			Assert.assertEquals(expected, e1.getNormalizedDistance(e2, Integer.MAX_VALUE));
+			Assert.assertEquals(1 - expected / 1024.0, e1.estimateSimilarity(e2), 0);
+			Assert.assertEquals(1 - expected / 1024.0, e1.estimateNormalizedSimilarity(e2), 0);
+			int bounded = e1.getNormalizedDistance(e2, 100);
+			Assert.assertTrue(expected > 100 ? bounded > 100 : bounded == expected);
+
+			BitSet bits = BitSet.valueOf(b2);
+			for (int from=0; from<2048-32; from+=13) {
+				int key = 0;
+				for (int i=0; i<32; i++) {
+					if (bits.get(from + i)) key |= 1 << i;
+				}
+				Assert.assertEquals(key, e2.getNormalizedBandKey(from, 32));
+				Assert.assertEquals(key & 0xFFFF, e2.getNormalizedBandKey(from, 16));
+			}
+		}
+	}
+	
+	@Test
+	public void testDistanceBound() {
+		int bound = MinHashEntry.getDistanceBound(2048, 0.7);
+		Assert.assertEquals(307, bound);
+		Assert.assertTrue(1 - bound / 1024.0 >= 0.7);
+		Assert.assertTrue(1 - (bound + 1) / 1024.0 < 0.7);
+		Assert.assertEquals(0, MinHashEntry.getDistanceBound(2048, 1.0));
+	}
+}
@@ -0,0 +1,116 @@
+package jp.naist.se.codehash.comparison;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NearestNeighborIndexTest {
+
+	/**
+	 * Create entries of random clusters.  Entries in a cluster differ in some bits.
+	 */
+	private static List<MinHashEntry> createEntries(Random r) {
+		ArrayList<MinHashEntry> entries = new ArrayList<>();
+		for (int c=0; c<20; c++) {
+			byte[] base = new byte[256];
+			r.nextBytes(base);
+			for (int m=0; m<10; m++) {
+				byte[] b = base.clone();
+				int flips = r.nextInt(100);
+				for (int k=0; k<flips; k++) {
+					int bit = r.nextInt(2048);
+					b[bit / 8] ^= 1 << (bit % 8);
+				}
+				String lang = m < 8 ? "JAVA" : "CPP";
+				int size = 100 + r.nextInt(30);
+				entries.add(new MinHashEntry("f" + entries.size(), "s" + entries.size(), lang, "c" + entries.size(), b, b, size, size, size));
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * @return the k most similar entries by comparing all entries.
+	 */
+	private static List<Integer> bruteForce(List<MinHashEntry> entries, int q, int k) {
+		ArrayList<Integer> result = new ArrayList<>();
+		final MinHashEntry e1 = entries.get(q);
+		for (int i=0; i<entries.size(); i++) {
+			if (i != q && e1.isSameLanguage(entries.get(i))) result.add(i);
+		}
+		final List<MinHashEntry> list = entries;
+		result.sort(new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i1, Integer i2) {
+				int c = Double.compare(e1.estimateNormalizedSimilarity(list.get(i2)), e1.estimateNormalizedSimilarity(list.get(i1)));
+				return c != 0 ? c : Integer.compare(i1, i2);
+			}
+		});
+		return result.subList(0, Math.min(k, result.size()));
+	}
+
+	private static List<Integer> indices(List<NearestNeighborIndex.Neighbor> neighbors) {
+		ArrayList<Integer> result = new ArrayList<>();
+		for (NearestNeighborIndex.Neighbor n: neighbors) {
+			result.add(n.getIndex());
+		}
+		return result;
+	}
+
+	@Test
+	public void testExact() {
+		List<MinHashEntry> entries = createEntries(new Random(0));
+		NearestNeighborIndex index = new NearestNeighborIndex(entries);
+		for (int q=0; q<entries.size(); q++) {
+			for (int k: new int[] {1, 5, 20}) {
+				List<NearestNeighborIndex.Neighbor> result = index.query(q, k);
+				Assert.assertEquals(bruteForce(entries, q, k), indices(result));
+				for (NearestNeighborIndex.Neighbor n: result) {
+					Assert.assertEquals(entries.get(q).estimateNormalizedSimilarity(entries.get(n.getIndex())), n.getSimilarity(), 0);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testLSH() {
+		List<MinHashEntry> entries = createEntries(new Random(1));
+		NearestNeighborIndex index = new NearestNeighborIndex(entries, LSHIndex.DEFAULT_BANDS, LSHIndex.DEFAULT_ROWS);
+		for (int q=0; q<entries.size(); q++) {
+			// Similar entries in the same cluster are found, while random entries are excluded
+			List<Integer> expected = new ArrayList<>();
+			for (int i: bruteForce(entries, q, entries.size())) {
+				if (entries.get(q).estimateNormalizedSimilarity(entries.get(i)) > 0.5) expected.add(i);
+			}
+			Assert.assertTrue(expected.size() > 0);
+			// A random entry may share a band by chance
+			List<Integer> actual = indices(index.query(q, 20));
+			Assert.assertEquals(bruteForce(entries, q, 20).size(), actual.size());
+			Assert.assertEquals(entries.get(q).getFilename(), expected, actual.subList(0, Math.min(expected.size(), actual.size())));
+			for (int i: actual.subList(expected.size(), actual.size())) {
+				Assert.assertTrue(entries.get(q).estimateNormalizedSimilarity(entries.get(i)) <= 0.5);
+			}
+		}
+	}
+
+	@Test
+	public void testLSHFallback() {
+		// Few entries share a band of 32 bits; the results are filled by the exact search
+		List<MinHashEntry> entries = createEntries(new Random(2));
+		NearestNeighborIndex index = new NearestNeighborIndex(entries, 1, 32);
+		for (int q=0; q<entries.size(); q++) {
+			for (int k: new int[] {1, 5, 20}) {
+				List<NearestNeighborIndex.Neighbor> result = index.query(q, k);
+				Assert.assertEquals(bruteForce(entries, q, k).size(), result.size());
+				for (NearestNeighborIndex.Neighbor n: result) {
+					Assert.assertNotEquals(q, n.getIndex());
+					Assert.assertEquals(entries.get(q).estimateNormalizedSimilarity(entries.get(n.getIndex())), n.getSimilarity(), 0);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package jp.naist.se.codehash.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FileGroupTest {
+
+	/**
+	 * Create files including many duplicates.
+	 * The number of files exceeds the files tokenized ahead by the threads.
+	 */
+	private static File createFiles(String name) throws IOException {
+		File dir = Files.createTempDirectory(name).toFile();
+		for (int i=0; i<600; i++) {
+			int v = i % 37;
+			StringBuilder content = new StringBuilder();
+			content.append("class C" + (v % 5) + " {\n");
+			for (int m=0; m<=v; m++) {
+				content.append("  int m" + m + "(int x) { return x * " + (m * v) + " + " + (m % 3) + "; }\n");
+			}
+			content.append("}\n");
+			String ext = i % 11 == 0 ? ".c" : ".java";
+			Files.write(new File(dir, "F" + i + ext).toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+		}
+		return dir;
+	}
+
+	private static void delete(File dir) {
+		for (File f: dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	/**
+	 * @return files loaded by the threads.
+	 * The same files are added to two groups to make duplicates across groups.
+	 */
+	private static List<FileEntity> load(File dir, int threads) {
+		ArrayList<FileGroup> groups = new ArrayList<>();
+		for (int g=0; g<2; g++) {
+			FileGroup group = new FileGroup("g" + g);
+			File[] files = dir.listFiles();
+			Arrays.sort(files);
+			for (File f: files) {
+				group.add(f.getAbsolutePath());
+			}
+			groups.add(group);
+		}
+		FileGroup.loadEntities(groups, null, 3, threads);
+		ArrayList<FileEntity> result = new ArrayList<>();
+		for (FileGroup g: groups) {
+			result.addAll(g.getFiles());
+		}
+		return result;
+	}
+
+	@Test
+	public void testThreads() throws IOException {
+		File dir = createFiles("FileGroupTest");
+		try {
+			List<FileEntity> single = load(dir, 1);
+			List<FileEntity> multi = load(dir, 4);
+			Assert.assertEquals(1200, single.size());
+			Assert.assertEquals(single.size(), multi.size());
+			int base1 = single.get(0).getIndex();
+			int base2 = multi.get(0).getIndex();
+			for (int i=0; i<single.size(); i++) {
+				FileEntity e1 = single.get(i);
+				FileEntity e2 = multi.get(i);
+				Assert.assertEquals(i, e1.getIndex() - base1);
+				Assert.assertEquals(i, e2.getIndex() - base2);
+				Assert.assertEquals(e1.getPath(), e2.getPath());
+				Assert.assertEquals(e1.getLanguage(), e2.getLanguage());
+				Assert.assertEquals(e1.getFileHash(), e2.getFileHash());
+				Assert.assertEquals(e1.getCodeHash(), e2.getCodeHash());
+				Assert.assertEquals(e1.getTokenLength(), e2.getTokenLength());
+				Assert.assertEquals(e1.getNgramCount(), e2.getNgramCount());
+				Assert.assertEquals(e1.getNgramMultiset().size(), e2.getNgramMultiset().size());
+				Assert.assertEquals(e1.getNgramMultiset().size(), e1.getNgramMultiset().intersection(e2.getNgramMultiset()));
+				Assert.assertEquals(e1.getNormalizedNgramMultiset().size(), e1.getNormalizedNgramMultiset().intersection(e2.getNormalizedNgramMultiset()));
+				Assert.assertEquals(1.0, e1.estimateNormalizedSimilarity(e2), 0);
+			}
+			// Similarity between files is also the same, including duplicated files
+			for (int i=0; i<single.size(); i+=7) {
+				for (int j=0; j<single.size(); j+=5) {
+					FileEntity a1 = single.get(i);
+					FileEntity b1 = single.get(j);
+					FileEntity a2 = multi.get(i);
+					FileEntity b2 = multi.get(j);
+					Assert.assertEquals(a1.getNgramMultiset().intersection(b1.getNgramMultiset()), a2.getNgramMultiset().intersection(b2.getNgramMultiset()));
+					Assert.assertEquals(a1.getNormalizedNgramMultiset().intersection(b1.getNormalizedNgramMultiset()), a2.getNormalizedNgramMultiset().intersection(b2.getNormalizedNgramMultiset()));
+					Assert.assertEquals(a1.estimateNormalizedSimilarity(b1), a2.estimateNormalizedSimilarity(b2), 0);
+					if (a1.getFileHash().equals(b1.getFileHash()) && a1.isSameLanguage(b1)) {
+						Assert.assertEquals(a2.getNgramMultiset().size(), a2.getNgramMultiset().intersection(b2.getNgramMultiset()));
+						Assert.assertEquals(1.0, a2.estimateNormalizedSimilarity(b2), 0);
+					}
+				}
+			}
+		} finally {
+			delete(dir);
+		}
+	}
+}
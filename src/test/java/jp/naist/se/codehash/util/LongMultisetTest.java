@@ -0,0 +1,127 @@
+package jp.naist.se.codehash.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class LongMultisetTest {
+
+	@Test
+	public void testMultiset() {
+		LongMultiset ms = new LongMultiset(10);
+		ms.add(0);
+		Assert.assertEquals(1, ms.size());
+		ms.add(0);
+		Assert.assertEquals(2, ms.size());
+		Assert.assertEquals(2, ms.get(0));
+		ms.add(0);
+		ms.add(-1);
+		ms.add(Long.MIN_VALUE);
+		ms.add(Long.MIN_VALUE);
+		Assert.assertEquals(6, ms.size());
+		Assert.assertEquals(3, ms.keyCount());
+		Assert.assertEquals(3, ms.get(0));
+		Assert.assertEquals(1, ms.get(-1));
+		Assert.assertEquals(2, ms.get(Long.MIN_VALUE));
+		Assert.assertEquals(0, ms.get(1));
+	}
+	
+	@Test
+	public void testRehash() {
+		LongMultiset ms = new LongMultiset(1);
+		for (int i=0; i<10000; i++) {
+			ms.add(i * 31L);
+			ms.add(i * 31L);
+		}
+		Assert.assertEquals(20000, ms.size());
+		Assert.assertEquals(10000, ms.keyCount());
+		Assert.assertEquals(10000, ms.toKeyArray().length);
+		for (int i=0; i<10000; i++) {
+			Assert.assertEquals(2, ms.get(i * 31L));
+		}
+		Assert.assertEquals(10000, ms.toOrdinarySet().size());
+	}
+	
+	@Test
+	public void testIntersection() {
+		LongMultiset ms = new LongMultiset(100);
+		for (int i=0; i<50; i++) {
+			ms.add(i);
+		}
+		LongMultiset ms2 = new LongMultiset(100);
+		for (int i=0; i<30; i++) {
+			ms2.add(i);
+		}
+		Assert.assertEquals(30, ms.intersection(ms2));
+		Assert.assertEquals(30, ms2.intersection(ms));
+		for (int i=0; i<30; i++) {
+			ms2.add(i);
+		}
+		Assert.assertEquals(30, ms.intersection(ms2));
+		Assert.assertEquals(30, ms2.intersection(ms));
+		for (int i=0; i<50; i++) {
+			ms.add(i);
+		}
+		Assert.assertEquals(60, ms.intersection(ms2));
+		Assert.assertEquals(60, ms2.intersection(ms));
+	}
+
+	@Test
+	public void testAddSet() {
+		LongMultiset first = new LongMultiset(100);
+		first.add(0);
+		first.add(0);
+		first.add(1);
+		first.add(1);
+		first.add(2);
+		first.add(2);
+		first.add(4);
+		// Construct another multiset
+		LongMultiset second = new LongMultiset(100);
+		second.add(0);
+		second.add(0);
+		second.add(0);
+		second.add(1);
+		second.add(1);
+		second.add(2);
+		second.add(3);
+		
+		Assert.assertEquals(14, first.add(second));
+		Assert.assertEquals(5, first.get(0));
+		Assert.assertEquals(4, first.get(1));
+		Assert.assertEquals(3, first.get(2));
+		Assert.assertEquals(1, first.get(3));
+		Assert.assertEquals(1, first.get(4));
+	}
+
+	@Test
+	public void testSubtract() {
+		// Construct a multiset
+		LongMultiset minuend = new LongMultiset(100);
+		minuend.add(0);
+		minuend.add(0);
+		minuend.add(1);
+		minuend.add(1);
+		minuend.add(2);
+		minuend.add(2);
+		minuend.add(4);
+		// Construct another multiset
+		LongMultiset subtrahend = new LongMultiset(100);
+		subtrahend.add(0);
+		subtrahend.add(0);
+		subtrahend.add(0);
+		subtrahend.add(1);
+		subtrahend.add(1);
+		subtrahend.add(2);
+		subtrahend.add(3);
+		
+		LongMultiset diff = minuend.subtract(subtrahend);
+		Assert.assertEquals(0, diff.get(0));
+		Assert.assertEquals(0, diff.get(1));
+		Assert.assertEquals(1, diff.get(2));
+		Assert.assertEquals(0, diff.get(3));
+		Assert.assertEquals(1, diff.get(4));
+		Assert.assertEquals(2, diff.size());
+	}
+	
+}
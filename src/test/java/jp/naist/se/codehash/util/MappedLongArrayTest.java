@@ -0,0 +1,30 @@
+package jp.naist.se.codehash.util;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MappedLongArrayTest {
+
+	@Test
+	public void testSetGet() throws IOException {
+		try (MappedLongArray array = new MappedLongArray()) {
+			long last = (1L << MappedLongArray.CHUNK_BITS) + 1;
+			array.ensureCapacity(last + 1);
+			for (long i=0; i<1000; i++) {
+				array.set(i, i * 31 - 500);
+			}
+			array.set(last - 2, Long.MIN_VALUE);
+			array.set(last - 1, -1);
+			array.set(last, Long.MAX_VALUE);
+			for (long i=0; i<1000; i++) {
+				Assert.assertEquals(i * 31 - 500, array.get(i));
+			}
+			Assert.assertEquals(Long.MIN_VALUE, array.get(last - 2));
+			Assert.assertEquals(-1, array.get(last - 1));
+			Assert.assertEquals(Long.MAX_VALUE, array.get(last));
+			Assert.assertEquals(0, array.get(last - 3));
+		}
+	}
+}
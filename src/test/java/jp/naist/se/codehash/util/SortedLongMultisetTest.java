@@ -0,0 +1,66 @@
+package jp.naist.se.codehash.util;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class SortedLongMultisetTest {
+
+	@Test
+	public void testMultiset() {
+		LongMultiset ms = new LongMultiset(10);
+		ms.add(0);
+		ms.add(0);
+		ms.add(-1);
+		ms.add(Long.MIN_VALUE);
+		ms.add(Long.MAX_VALUE);
+		SortedLongMultiset sorted = new SortedLongMultiset(ms);
+		Assert.assertEquals(5, sorted.size());
+		Assert.assertEquals(4, sorted.keyCount());
+		Assert.assertEquals(2, sorted.get(0));
+		Assert.assertEquals(1, sorted.get(-1));
+		Assert.assertEquals(1, sorted.get(Long.MIN_VALUE));
+		Assert.assertEquals(1, sorted.get(Long.MAX_VALUE));
+		Assert.assertEquals(0, sorted.get(1));
+	}
+
+	@Test
+	public void testIntersection() {
+		LongMultiset ms = new LongMultiset(100);
+		for (int i=0; i<50; i++) {
+			ms.add(i);
+			ms.add(i);
+		}
+		LongMultiset ms2 = new LongMultiset(100);
+		for (int i=-10; i<30; i++) {
+			ms2.add(i);
+		}
+		SortedLongMultiset sorted = new SortedLongMultiset(ms);
+		SortedLongMultiset sorted2 = new SortedLongMultiset(ms2);
+		Assert.assertEquals(30, sorted.intersection(sorted2));
+		Assert.assertEquals(30, sorted2.intersection(sorted));
+		Assert.assertEquals(100, sorted.intersection(sorted));
+	}
+
+	@Test
+	public void testGallopingIntersection() {
+		Random r = new Random(0);
+		LongMultiset large = new LongMultiset(10000);
+		for (int i=0; i<10000; i++) {
+			large.add(r.nextInt(20000) - 10000);
+		}
+		for (int n=0; n<100; n++) {
+			LongMultiset small = new LongMultiset(10);
+			for (int i=0; i<n; i++) {
+				small.add(r.nextInt(22000) - 11000);
+			}
+			SortedLongMultiset sortedSmall = new SortedLongMultiset(small);
+			SortedLongMultiset sortedLarge = new SortedLongMultiset(large);
+			Assert.assertEquals(small.intersection(large), sortedSmall.intersection(sortedLarge));
+			Assert.assertEquals(small.intersection(large), sortedLarge.intersection(sortedSmall));
+		}
+	}
+
+}